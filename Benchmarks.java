@@ -0,0 +1,478 @@
+import java.awt.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Benchmark cases for tree construction, validation and every
+    decomposition engine and query structure, over generated shapes.
+
+    cases(shape, n) returns every case by name. The JMH module under jmh/
+    runs them in forked JVMs with proper warmup and Blackhole consumption;
+    that is the harness to trust for numbers. main is a quick single-JVM
+    run of the same cases from 10^3 nodes up to a chosen maximum:
+
+        java Benchmarks [maxNodes] [SHAPE ...]
+
+    Each case is warmed up, then timed over several runs. A row reports the
+    mean time and throughput, the bytes allocated per run and per second on
+    all threads, the collections during the timed runs, the height of the
+    centroid tree for decompositions, and the deepest Java stack seen. The
+    stack is sampled on every thread running code of this tree, about once
+    a millisecond during extra untimed runs, so it shows whether an engine
+    recurses with the input (deeper than -XX:MaxJavaStackTraceDepth reads
+    as that limit). 10^7 nodes need a bigger heap, e.g. -Xmx8g.
+
+    All engines share one table, so variants are compared row by row.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    // Least time the stack sampler watches a case, running it repeatedly
+    private static final long SAMPLE_NANOS = 50000000L;
+
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        int maxNodes = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+        ArrayList<TreeShapes.Shape> shapes = new ArrayList<TreeShapes.Shape>();
+        for (int i = 1; i < args.length; i++) {
+            shapes.add(TreeShapes.Shape.valueOf(args[i].toUpperCase()));
+        }
+        if (shapes.isEmpty()) {
+            shapes.addAll(Arrays.asList(TreeShapes.Shape.values()));
+        }
+
+        System.out.printf("%-36s %-12s %10s %12s %14s %12s %10s %6s %6s %6s%n",
+                "case", "shape", "nodes", "ms/op", "nodes/s", "MB/op", "MB/s", "gc", "height", "stack");
+        for (TreeShapes.Shape shape : shapes) {
+            for (int n = 1000; n <= maxNodes; n *= 10) {
+                for (Map.Entry<String, Callable<Object>> entry : cases(shape, n).entrySet()) {
+                    measure(entry.getKey(), shape, n, entry.getValue());
+                }
+            }
+        }
+    }
+
+    // Inputs shared by the cases of one shape and size, each built on first use
+    private static class Inputs {
+        final TreeShapes.Shape shape;
+        final int n;
+
+        private int[] parent;
+        private Tree<NodeData,EdgeData> tree;
+        private CompactTree compact;
+        private Decomposition full;
+
+        // n random pairs, so nodes/s reads as queries per second
+        private int[] us;
+        private int[] vs;
+        private double[] distances;
+
+        private LcaIndex lcaIndex;
+        private CentroidDistanceTable distanceTable;
+        private NearestMarkedService nearest;
+        private HeavyLightDecomposition heavyLight;
+
+        Inputs(TreeShapes.Shape shape, int n) {
+            this.shape = shape;
+            this.n = n;
+        }
+
+        int[] parent() {
+            if (parent == null) {
+                parent = TreeShapes.parents(shape, n, SEED);
+            }
+            return parent;
+        }
+
+        Tree<NodeData,EdgeData> tree() {
+            if (tree == null) {
+                tree = TreeShapes.tree(shape, n, SEED, false);
+            }
+            return tree;
+        }
+
+        CompactTree compact() {
+            if (compact == null) {
+                compact = CompactTree.fromTree(tree());
+            }
+            return compact;
+        }
+
+        Decomposition full() {
+            if (full == null) {
+                full = new CentroidDecomposer(0).decomposeForest(compact());
+            }
+            return full;
+        }
+
+        int[] us() {
+            makePairs();
+            return us;
+        }
+
+        int[] vs() {
+            makePairs();
+            return vs;
+        }
+
+        double[] distances() {
+            makePairs();
+            return distances;
+        }
+
+        private void makePairs() {
+            if (us != null) {
+                return;
+            }
+            us = new int[n];
+            vs = new int[n];
+            distances = new double[n];
+            Random random = new Random(SEED);
+            for (int i = 0; i < n; i++) {
+                us[i] = random.nextInt(n);
+                vs[i] = random.nextInt(n);
+            }
+        }
+
+        LcaIndex lcaIndex() {
+            if (lcaIndex == null) {
+                lcaIndex = new LcaIndex(compact());
+            }
+            return lcaIndex;
+        }
+
+        CentroidDistanceTable distanceTable() {
+            if (distanceTable == null) {
+                distanceTable = new CentroidDistanceTable(compact(), full());
+            }
+            return distanceTable;
+        }
+
+        NearestMarkedService nearest() {
+            if (nearest == null) {
+                nearest = new NearestMarkedService(distanceTable());
+            }
+            return nearest;
+        }
+
+        HeavyLightDecomposition heavyLight() {
+            if (heavyLight == null) {
+                heavyLight = new HeavyLightDecomposition(compact());
+            }
+            return heavyLight;
+        }
+    }
+
+    /*
+        Every case for one shape and size, by name, in report order. A body
+        returns what it built or computed so a harness can consume it. The
+        inputs a case works on are built by its first call, so a case should
+        be called once before it is timed; only the cases that are run pay
+        for their inputs.
+     */
+    public static LinkedHashMap<String, Callable<Object>> cases(TreeShapes.Shape shape, final int n) {
+        final Inputs inputs = new Inputs(shape, n);
+        LinkedHashMap<String, Callable<Object>> cases = new LinkedHashMap<String, Callable<Object>>();
+
+        cases.put("Tree.addEdge", new Callable<Object>() {
+            public Object call() {
+                return build(inputs.parent(), false, false);
+            }
+        });
+        cases.put("Tree.addEdge (indexed)", new Callable<Object>() {
+            public Object call() {
+                return build(inputs.parent(), true, false);
+            }
+        });
+        cases.put("Tree.addEdge (cycle check)", new Callable<Object>() {
+            public Object call() {
+                return build(inputs.parent(), false, true);
+            }
+        });
+        cases.put("Tree.isAcyclic", new Callable<Object>() {
+            public Object call() {
+                return inputs.tree().isAcyclic();
+            }
+        });
+        cases.put("CompactTree.fromTree", new Callable<Object>() {
+            public Object call() {
+                return CompactTree.fromTree(inputs.tree());
+            }
+        });
+        cases.put("CompactTree.isAcyclic", new Callable<Object>() {
+            public Object call() {
+                return inputs.compact().isAcyclic();
+            }
+        });
+
+        final CentroidDecomposer decomposer = new CentroidDecomposer();
+        cases.put("CentroidDecomposer (Tree)", new Callable<Object>() {
+            public Object call() {
+                return decomposer.decompose(inputs.tree());
+            }
+        });
+        cases.put("CentroidDecomposer (CSR)", new Callable<Object>() {
+            public Object call() {
+                return decomposer.decompose(inputs.compact());
+            }
+        });
+        final ParallelCentroidDecomposer parallel = new ParallelCentroidDecomposer();
+        cases.put("ParallelCentroidDecomposer (CSR)", new Callable<Object>() {
+            public Object call() {
+                return parallel.decompose(inputs.compact());
+            }
+        });
+        cases.put("CentroidDecomposer.decomposeForest", new Callable<Object>() {
+            public Object call() {
+                return decomposer.decomposeForest(inputs.compact());
+            }
+        });
+        cases.put("ParallelCentroidDecomposer (forest)", new Callable<Object>() {
+            public Object call() {
+                return parallel.decomposeForest(inputs.compact());
+            }
+        });
+        // What the canvas runs for the Centroid Decomposition button
+        cases.put("DecompositionTimeline (canvas)", new Callable<Object>() {
+            public Object call() {
+                return new DecompositionTimeline(DecompositionCache.FOREST_DECOMPOSITION.build(inputs.compact()));
+            }
+        });
+        cases.put("DecompositionVerifier", new Callable<Object>() {
+            public Object call() {
+                return new DecompositionVerifier(inputs.compact(), inputs.full());
+            }
+        });
+        cases.put("TreeFingerprint.of", new Callable<Object>() {
+            public Object call() {
+                return TreeFingerprint.of(inputs.compact());
+            }
+        });
+        cases.put("TreeLayout", new Callable<Object>() {
+            public Object call() {
+                return new TreeLayout().layout(inputs.compact());
+            }
+        });
+        cases.put("CentroidDistanceTable (build)", new Callable<Object>() {
+            public Object call() {
+                return new CentroidDistanceTable(inputs.compact(), inputs.full());
+            }
+        });
+        // Pairs within one average edge length; the work doesn't depend much on the bound
+        cases.put("PairDistanceCounter.countWithin", new Callable<Object>() {
+            public Object call() {
+                return new PairDistanceCounter(inputs.compact()).countWithin(50);
+            }
+        });
+        cases.put("LcaIndex (build)", new Callable<Object>() {
+            public Object call() {
+                return new LcaIndex(inputs.compact());
+            }
+        });
+        cases.put("LcaIndex.distances", new Callable<Object>() {
+            public Object call() {
+                inputs.lcaIndex().distances(inputs.us(), inputs.vs(), n, inputs.distances());
+                return inputs.distances();
+            }
+        });
+        cases.put("CentroidDistanceTable.distances", new Callable<Object>() {
+            public Object call() {
+                inputs.distanceTable().distances(inputs.us(), inputs.vs(), n, inputs.distances());
+                return inputs.distances();
+            }
+        });
+        cases.put("NearestMarkedService (build)", new Callable<Object>() {
+            public Object call() {
+                return new NearestMarkedService(inputs.distanceTable());
+            }
+        });
+        // n / 2 marks, n nearest queries and n / 2 unmarks
+        cases.put("NearestMarkedService (updates)", new Callable<Object>() {
+            public Object call() {
+                NearestMarkedService nearest = inputs.nearest();
+                nearest.mark(inputs.us(), n / 2);
+                nearest.nearest(inputs.vs(), n, inputs.distances());
+                nearest.unmark(inputs.us(), n / 2);
+                return inputs.distances();
+            }
+        });
+        cases.put("HeavyLightDecomposition (build)", new Callable<Object>() {
+            public Object call() {
+                return new HeavyLightDecomposition(inputs.compact());
+            }
+        });
+        cases.put("HeavyLightDecomposition.pathSums", new Callable<Object>() {
+            public Object call() {
+                inputs.heavyLight().pathSums(inputs.us(), inputs.vs(), n, inputs.distances());
+                return inputs.distances();
+            }
+        });
+        // The edge from each node to its first neighbour, so every edge changes at least once
+        cases.put("HeavyLightDecomposition (updates)", new Callable<Object>() {
+            public Object call() {
+                HeavyLightDecomposition heavyLight = inputs.heavyLight();
+                int[] offsets = inputs.compact().getOffsets();
+                int[] neighbors = inputs.compact().getNeighbors();
+                for (int v = 0; v < n; v++) {
+                    if (offsets[v] < offsets[v + 1]) {
+                        heavyLight.setDistance(v, neighbors[offsets[v]], v);
+                    }
+                }
+                return heavyLight;
+            }
+        });
+        cases.put("DynamicCentroidTree (inserts)", new Callable<Object>() {
+            public Object call() {
+                int[] parent = inputs.parent();
+                Tree<NodeData,EdgeData> edited = new Tree<NodeData,EdgeData>();
+                DynamicCentroidTree dynamic = new DynamicCentroidTree(edited);
+                for (int i = 0; i < n; i++) {
+                    edited.addNode(new NodeData(new Point(0, 0), ""));
+                    if (i > 0) {
+                        edited.addEdge(new EdgeData(1.0), edited.getNode(parent[i]), edited.getNode(i));
+                    }
+                }
+                return dynamic.toDecomposition();
+            }
+        });
+        return cases;
+    }
+
+    private static Tree<NodeData,EdgeData> build(int[] parent, boolean indexed, boolean cycleCheck) {
+        Tree<NodeData,EdgeData> tree = new Tree<NodeData,EdgeData>(indexed);
+        tree.setCycleCheck(cycleCheck);
+        for (int i = 0; i < parent.length; i++) {
+            tree.addNode(new NodeData(new Point(0, 0), ""));
+            if (i > 0) {
+                tree.addEdge(new EdgeData(1.0), tree.getNode(parent[i]), tree.getNode(i));
+            }
+        }
+        return tree;
+    }
+
+    private static void measure(String name, TreeShapes.Shape shape, int n, Callable<Object> body) {
+        Object result = null;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            result = run(body);
+        }
+        int stack = sampleStack(body);
+
+        long gcBefore = gcCount();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            result = run(body);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long collections = gcCount() - gcBefore;
+
+        // Centroid tree height for decompositions, depth for the verifier
+        int height = -1;
+        if (result instanceof Decomposition) {
+            height = ((Decomposition) result).getHeight();
+        } else if (result instanceof DecompositionVerifier) {
+            height = ((DecompositionVerifier) result).getMaxDepth();
+        }
+
+        double msPerOp = elapsed / 1e6 / MEASURED_RUNS;
+        double nodesPerSecond = n / (msPerOp / 1000.0);
+        double mbPerOp = allocated / (1024.0 * 1024.0) / MEASURED_RUNS;
+        double mbPerSecond = mbPerOp / (msPerOp / 1000.0);
+        System.out.printf("%-36s %-12s %10d %12.3f %14.0f %12.2f %10.1f %6d %6s %6d%n",
+                name, shape, n, msPerOp, nodesPerSecond, mbPerOp, mbPerSecond, collections,
+                (height < 0) ? "-" : Integer.toString(height), stack);
+    }
+
+    private static Object run(Callable<Object> body) {
+        try {
+            return body.call();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Deepest stack, in frames, of any thread in our code while the case runs for at least SAMPLE_NANOS
+    private static int sampleStack(Callable<Object> body) {
+        StackSampler sampler = new StackSampler();
+        sampler.start();
+        long start = System.nanoTime();
+        do {
+            run(body);
+        } while (System.nanoTime() - start < SAMPLE_NANOS);
+        sampler.finish();
+        return sampler.deepest;
+    }
+
+    private static class StackSampler extends Thread {
+
+        private volatile boolean running = true;
+
+        private volatile int deepest;
+
+        StackSampler() {
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (running) {
+                for (Map.Entry<Thread,StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+                    StackTraceElement[] trace = entry.getValue();
+                    if (entry.getKey() != this && trace.length > deepest && inOurCode(trace)) {
+                        deepest = trace.length;
+                    }
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        // Idle pool workers and JVM threads only run library code; ours is in the default package
+        private static boolean inOurCode(StackTraceElement[] trace) {
+            for (StackTraceElement frame : trace) {
+                if (frame.getClassName().indexOf('.') < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // Bytes allocated so far by all live threads, so pool workers are counted too
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (long bytes : sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
@@ -1,6 +1,8 @@
 import java.awt.*;
+import java.awt.image.*;
+import java.beans.*;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.*;
 import javax.swing.*;
 
 
@@ -9,369 +11,524 @@ public class Canvas extends JComponent {
 
     public Tree<NodeData,EdgeData> tree;
 
+    // Centroid tree kept up to date with every edit, or null to decompose from scratch each time
+    private DynamicCentroidTree dynamicDecomposition;
+
+    // Last drawn scene, redrawn only inside the dirty area
+    private BufferedImage backBuffer;
+
+    // Area repainted since the last paint, empty when the back buffer is current
+    private final Rectangle dirty = new Rectangle();
+
+    // Scratch rectangles for painting, only used on the event dispatch thread
+    private final Rectangle region = new Rectangle();
+    private final Rectangle nodeBounds = new Rectangle();
+
+    // Zoom below which labels and arrow heads are left out
+    private static final double DETAIL_ZOOM = 0.4;
+
+    // Zoom below which nodes are drawn as blobs
+    private static final double BLOB_ZOOM = 0.12;
+
+    // Smallest side of a blob on screen, in pixels
+    private static final int BLOB_PIXELS = 12;
+
+    private static final double MIN_ZOOM = 0.00005;
+    private static final double MAX_ZOOM = 8;
+
+    // Room for labels sticking out of the elements, in tree coordinates
+    private static final int LABEL_MARGIN = 100;
+
+    // View transform: screen = tree * zoom + offset
+    private double zoom = 1;
+    private double offsetX;
+    private double offsetY;
+
+    private final NodeGrid grid;
+
+    private final DecompositionPlayer player;
+
+    // Decompositions already worked out, by the fingerprint of the tree
+    private final TreeFingerprint fingerprint;
+    private final DecompositionCache cache = new DecompositionCache();
+
+    // Every component down to single nodes, so parts split off by a removal are shown too
+    private static final DecompositionCache.Builder<DecompositionTimeline> TIMELINE =
+            new DecompositionCache.Builder<DecompositionTimeline>() {
+                public DecompositionTimeline build(CompactTree tree) {
+                    return new DecompositionTimeline(DecompositionCache.FOREST_DECOMPOSITION.build(tree));
+                }
+            };
+
+    // Layout running in the background, or null
+    private LayoutWorker layoutWorker;
+
+    // Progress bar shown while a layout runs, in screen coordinates
+    private static final Rectangle PROGRESS_BAR = new Rectangle(10, 10, 200, 16);
+
+    // State of the frame being rendered, shared with the painters below
+    private Graphics2D paintGraphics;
+    private FontMetrics paintMetrics;
+    private final Rectangle visibleArea = new Rectangle();
+    private final EdgePainter edgePainter = new EdgePainter();
+    private final NodePainter nodePainter = new NodePainter();
+    private final BlobPainter blobPainter = new BlobPainter();
+
 
     public Canvas() {
         tree = new Tree<NodeData, EdgeData>(); // Working tree, seperate from centroid decomp
+        grid = new NodeGrid(tree, EdgeGeometry.NODE_RADIUS);
+        player = new DecompositionPlayer(this);
+        fingerprint = new TreeFingerprint(tree);
     }
 
-    // Paints default blue circle with r = 15px and default blue edge lines
+    /*
+        The scene is drawn into a back buffer and only the parts that were
+        repainted since the last paint are redrawn there, so moving one node
+        redraws just the elements near it. All repaint requests pass through
+        repaint(long, int, int, int, int) and are collected in dirty.
+     */
     public void paintComponent(Graphics g){
-        if (tree != null) {
-            // Paint edges
-            for (Tree<NodeData, EdgeData>.Edge edge : tree.getEdges()) {
-                g.setColor(edge.getData().getColor());
-                Tree<NodeData, EdgeData>.Node sigma = edge.getNode();
-                Point s = sigma.getData().getPosition();
-                Point r = edge.getOtherNode(sigma).getData().getPosition();
-                // Paint edge from s to r
-                double dist = paintArrowLine(g, (int)s.getX(), (int)s.getY(), (int)r.getX(), (int)r.getY(), 20, 10, edge.getData().getDistance());
-                if (edge.getData().getDistance()==-1) {
-                    edge.getData().setDistance(dist);
-                }
-            }
-            // Paint nodes
-            for (Tree<NodeData,EdgeData>.Node node : tree.getNodes()) {
-                Point q = node.getData().getPosition();
-                g.setColor(node.getData().getColor());
-                g.fillOval((int) q.getX()-40, (int) q.getY()-40, 80, 80);
-                //paint text
-                g.setColor(Color.white);
-                g.drawString(node.getData().getText(),(int)q.getX()-5,(int)q.getY()+5);
+        int width = Math.max(1, getWidth()), height = Math.max(1, getHeight());
+        if (backBuffer == null || backBuffer.getWidth() != width || backBuffer.getHeight() != height) {
+            backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            synchronized (dirty) {
+                dirty.setBounds(0, 0, width, height);
             }
         }
+        synchronized (dirty) {
+            region.setBounds(dirty);
+            dirty.setBounds(0, 0, 0, 0);
+        }
+        if (!region.isEmpty()) {
+            renderScene(region);
+        }
+        g.drawImage(backBuffer, 0, 0, null);
+        if (layoutWorker != null) {
+            paintProgress(g, layoutWorker.getProgress());
+        }
+    }
 
+    // Drawn over the scene rather than into the back buffer, so it needs no clean-up
+    private void paintProgress(Graphics g, int percent) {
+        Rectangle bar = PROGRESS_BAR;
+        g.setColor(Color.WHITE);
+        g.fillRect(bar.x, bar.y, bar.width, bar.height);
+        g.setColor(Palette.PROCESSING);
+        g.fillRect(bar.x, bar.y, bar.width * percent / 100, bar.height);
+        g.setColor(Color.BLACK);
+        g.drawRect(bar.x, bar.y, bar.width, bar.height);
+        g.drawString("Layout " + percent + "%", bar.x + 4, bar.y + bar.height - 4);
     }
-    // Reset to default colours
-     private void resetColors() {
-         if (tree != null) {
-             for (Tree<NodeData,EdgeData>.Edge edge:tree.getEdges()){
-                 edge.getData().setColor( new Color(76, 2, 4));
-             }
-             for (Tree<NodeData,EdgeData>.Node node:tree.getNodes()){
-                 node.getData().setColor(new Color(58, 5, 94));
-             }
-         }
-     }
 
-    /**
-     * Draw an arrow line between two points, revised from the code of @phibao37
-     * http://stackoverflow.com/questions/2027613/how-to-draw-a-directed-arrow-line-in-java
-     * Takes in x and y positions of the 2 points, as well as the width and height components
-     * of the arrow/vector. Returns the distance between two points.
+    /*
+        Redraws the part of the back buffer inside clip. Only the nodes and
+        edges the grid finds around the visible part of the tree are looked
+        at, so the cost follows what is on screen. Below DETAIL_ZOOM labels
+        and arrow heads are left out, and below BLOB_ZOOM nodes are drawn as
+        blocks, one per block of the grid, shaded by how many nodes it holds.
+        Only the detailed level draws through a scaled Graphics, the others
+        work out screen coordinates themselves and stay on the fast paths.
      */
-    private double paintArrowLine(Graphics g, int x1, int y1, int x2, int y2, int d, int h,Double dist){
-        int dx = x2 - x1, dy = y2 - y1;
-        double D = Math.sqrt(dx*dx + dy*dy);
-        double sin = dy/D, cos = dx/D;
-
-        x2 = (int)(x2 - 40 * cos);
-        y2 = (int)(y2 - 40 * sin);
-        D = D - 40; // change the length of the line
-        double xm = D - d, xn = xm, ym = h, yn = -h, x;
-
-        x = xm*cos - ym*sin + x1;
-        ym = xm*sin + ym*cos + y1;
-        xm = x;
-
-        x = xn*cos - yn*sin + x1;
-        yn = xn*sin + yn*cos + y1;
-        xn = x;
-
-        int[] xpoints = {x2, (int) xm, (int) xn};
-        int[] ypoints = {y2, (int) ym, (int) yn};
-
-        g.drawLine(x1, y1, x2, y2);
-        g.fillPolygon(xpoints, ypoints, 3);
-        // paint the distance
-        if (dist == -1.0) {
-            // the actual distance(D+40) between two points next to the tail (D=the length of the arrow)
-            dist = Math.round((D + 40) * 100) / 100.00;
+    private void renderScene(Rectangle clip) {
+        Graphics2D g = backBuffer.createGraphics();
+        try {
+            g.setClip(clip);
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            g.setComposite(AlphaComposite.SrcOver);
+            if (getFont() != null) {
+                g.setFont(getFont());
+            }
+            if (tree == null) {
+                return;
+            }
+            // Visible part of the tree, with room for labels of elements just outside
+            toTree(clip, visibleArea);
+            visibleArea.grow(LABEL_MARGIN, LABEL_MARGIN);
+            paintGraphics = g;
+            paintMetrics = g.getFontMetrics();
+            if (zoom >= DETAIL_ZOOM) {
+                // Labels have to scale with the tree, so this level draws in tree coordinates
+                g.translate(offsetX, offsetY);
+                g.scale(zoom, zoom);
+            }
+            if (zoom >= BLOB_ZOOM) {
+                grid.forEachEdge(visibleArea, edgePainter);
+                grid.forEachNode(visibleArea, nodePainter);
+            } else {
+                int level = 0;
+                while (level < NodeGrid.LEVELS && (grid.getCellSize() << level) * zoom < BLOB_PIXELS) {
+                    level++;
+                }
+                grid.forEachBlock(level, visibleArea, blobPainter);
+            }
+        } finally {
+            paintGraphics = null;
+            g.dispose();
         }
-        g.drawString(Double.toString(dist),(int) (xm - 30 * cos), (int) (ym - 30 * sin));
-        return dist;
     }
 
-    public void startCentroidDecomposition() {
-        if (tree != null && !tree.getNodes().isEmpty()) {
-            System.out.println("Starting centroid decomposition.");
-            new DecompositionWorker(tree).execute();
-        } else {
-            System.out.println("Tree is empty.");
-            //instr.setText("Tree is empty or invalid.");
+    // Paints an edge, with its arrow head and label when zoomed in far enough
+    private class EdgePainter implements NodeGrid.EdgeVisitor {
+        public void visit(Tree<NodeData,EdgeData>.Edge edge) {
+            paintGraphics.setColor(edge.getData().getColor());
+            if (zoom >= DETAIL_ZOOM) {
+                EdgeGeometry geometry = edgeGeometry(edge, paintMetrics);
+                if (geometry.getBounds().intersects(visibleArea)) {
+                    geometry.paint(paintGraphics);
+                }
+            } else {
+                Point s = edge.getNode().getData().getPosition();
+                Point r = edge.getOtherNode(edge.getNode()).getData().getPosition();
+                paintGraphics.drawLine(screenX(s.x), screenY(s.y), screenX(r.x), screenY(r.y));
+            }
         }
     }
-    // Swing worker class that handles the GUI processes.
-    public class DecompositionWorker extends SwingWorker<Void, Tree<NodeData, EdgeData>.Node> {
-        public Tree<NodeData, EdgeData>.Node currentNode;
-        public Tree<NodeData, EdgeData>.Node currentCentroid;
-        private final Tree<NodeData, EdgeData> decompositionTree;
-        public DecompositionWorker(Tree<NodeData, EdgeData> tree) {
-            this.decompositionTree = getCentroidDecomposition();
-        }
 
-        public Tree<NodeData,EdgeData> getCentroidDecomposition() {
-            // Create a new tree to represent the centroid decomposition
-            Tree<NodeData,EdgeData> centroidTree = new Tree<NodeData,EdgeData>();
-
-            // If the tree is empty, return an empty centroid tree
-            if (tree.getNodes().isEmpty()) {
-                return centroidTree;
+    // Paints default blue circle with r = 40 and its text when zoomed in far enough
+    private class NodePainter implements NodeGrid.NodeVisitor {
+        public void visit(Tree<NodeData,EdgeData>.Node node) {
+            if (!nodeBounds(node, paintMetrics, nodeBounds).intersects(visibleArea)) {
+                return;
+            }
+            Point q = node.getData().getPosition();
+            paintGraphics.setColor(node.getData().getColor());
+            if (zoom >= DETAIL_ZOOM) {
+                paintGraphics.fillOval(q.x - EdgeGeometry.NODE_RADIUS, q.y - EdgeGeometry.NODE_RADIUS,
+                        2 * EdgeGeometry.NODE_RADIUS, 2 * EdgeGeometry.NODE_RADIUS);
+                //paint text
+                paintGraphics.setColor(Palette.NODE_TEXT);
+                paintGraphics.drawString(node.getData().getText(), q.x - 5, q.y + 5);
+            } else {
+                int radius = (int) Math.ceil(EdgeGeometry.NODE_RADIUS * zoom);
+                paintGraphics.fillOval(screenX(q.x) - radius, screenY(q.y) - radius, 2 * radius, 2 * radius);
             }
+        }
+    }
 
-            // Mark which nodes have been used as centroids
-            Set<Tree<NodeData,EdgeData>.Node> centroidMarked = new HashSet<>();
+    private class BlobPainter implements NodeGrid.BlockVisitor {
+        public void visit(int x, int y, int size, int count) {
+            paintGraphics.setColor(Palette.blob(count));
+            int left = screenX(x), top = screenY(y);
+            paintGraphics.fillRect(left, top, screenX(x + size) - left, screenY(y + size) - top);
+        }
+    }
 
-            // Map to keep track of original nodes to centroid nodes
-            Map<Tree<NodeData,EdgeData>.Node, Tree<NodeData,EdgeData>.Node> centroidMapping = new HashMap<>();
+    /*
+        Geometry of the edge from its first node to the other, bringing it
+        up to date first. Painting never changes the tree: an unset distance
+        (-1) is labelled with the drawn length but stays unset.
+     */
+    private EdgeGeometry edgeGeometry(Tree<NodeData,EdgeData>.Edge edge, FontMetrics metrics) {
+        EdgeData data = edge.getData();
+        EdgeGeometry geometry = data.getGeometry();
+        Tree<NodeData, EdgeData>.Node sigma = edge.getNode();
+        Point s = sigma.getData().getPosition();
+        Point r = edge.getOtherNode(sigma).getData().getPosition();
+        geometry.update(s, r, data.getDistance(), metrics);
+        return geometry;
+    }
 
-            // Start centroid decomposition from the first node
-            getCentroidRecursive(tree.getNodes().get(0), null, centroidTree, centroidMarked, centroidMapping);
+    // Area covered by the node's circle and text, stored in bounds
+    private Rectangle nodeBounds(Tree<NodeData,EdgeData>.Node node, FontMetrics metrics, Rectangle bounds) {
+        Point q = node.getData().getPosition();
+        bounds.setBounds(q.x - EdgeGeometry.NODE_RADIUS, q.y - EdgeGeometry.NODE_RADIUS,
+                2 * EdgeGeometry.NODE_RADIUS + 1, 2 * EdgeGeometry.NODE_RADIUS + 1);
+        String text = node.getData().getText();
+        if (text != null) {
+            bounds.add(q.x - 5 + metrics.stringWidth(text), q.y + 5 + metrics.getDescent());
+            bounds.add(q.x - 5, q.y + 5 - metrics.getAscent());
+        }
+        return bounds;
+    }
 
-            return centroidTree;
+    /*
+        Repaints just the node and its edges as they are drawn now. Call it
+        before and after changing a node, e.g. once at the old and once at
+        the new position of a drag, so both areas are refreshed.
+     */
+    public void repaintAround(Tree<NodeData,EdgeData>.Node node) {
+        Font font = getFont();
+        if (font == null) {
+            repaint();
+            return;
+        }
+        FontMetrics metrics = getFontMetrics(font);
+        Rectangle area = nodeBounds(node, metrics, new Rectangle());
+        for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+            area.add(edgeGeometry(edge, metrics).getBounds());
         }
+        repaint(toScreen(area, area));
+    }
 
-        private Tree<NodeData,EdgeData>.Node getCentroidRecursive(
-                Tree<NodeData,EdgeData>.Node currentNode,
-                Tree<NodeData,EdgeData>.Node parentCentroid,
-                Tree<NodeData,EdgeData> centroidTree,
-                Set<Tree<NodeData,EdgeData>.Node> centroidMarked,
-                Map<Tree<NodeData,EdgeData>.Node, Tree<NodeData,EdgeData>.Node> centroidMapping) {
+    // Collects the area to redraw in the back buffer, then schedules the paint as usual
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        // Called by the JComponent constructor before the fields are set
+        if (dirty != null && width > 0 && height > 0) {
+            synchronized (dirty) {
+                if (dirty.isEmpty()) {
+                    dirty.setBounds(x, y, width, height);
+                } else {
+                    dirty.add(x, y);
+                    dirty.add(x + width, y + height);
+                }
+            }
+        }
+        super.repaint(tm, x, y, width, height);
+    }
 
-            // Find the centroid of the current subtree
-            System.out.println("\nProcessing subtree rooted at: " + currentNode.getData().getText());
+    // Index over node positions, for hit-testing and culling
+    public NodeGrid getNodeGrid() {
+        return grid;
+    }
 
-            // Get size of current subtree
-            int subtreeSize = getSubtreeSize(currentNode, centroidMarked);
+    public double getZoom() {
+        return zoom;
+    }
 
-            // If subtree is too small, stop decomposition
-            if (subtreeSize <= 2) {
-                System.out.println("Subtree size " + subtreeSize + " is too small, stopping decomposition");
-                return parentCentroid;
-            }
+    // Tree position under the screen point (x, y)
+    public Point toTree(int x, int y) {
+        return new Point((int) Math.floor((x - offsetX) / zoom), (int) Math.floor((y - offsetY) / zoom));
+    }
 
-            Tree<NodeData,EdgeData>.Node centroid = findCentroid(currentNode, centroidMarked);
+    // Scales by factor, keeping the tree position under (x, y) in place
+    public void zoomAt(int x, int y, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        offsetX = x - (x - offsetX) / zoom * newZoom;
+        offsetY = y - (y - offsetY) / zoom * newZoom;
+        zoom = newZoom;
+        repaint();
+    }
 
-            // If we already found this centroid before, use it
-            if (centroidMarked.contains(centroid)) {
-                System.out.println("Reusing existing centroid: " + centroid.getData().getText());
-                return centroid;
-            }
+    // Moves the view by (dx, dy) pixels
+    public void pan(int dx, int dy) {
+        offsetX += dx;
+        offsetY += dy;
+        repaint();
+    }
 
-            // Mark this node as a centroid
-            centroidMarked.add(centroid);
+    // Zooms and pans so area fills the component
+    private void fitToView(Rectangle area) {
+        int width = Math.max(1, getWidth()), height = Math.max(1, getHeight());
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM,
+                Math.min((double) width / Math.max(1, area.width), (double) height / Math.max(1, area.height))));
+        offsetX = width / 2.0 - (area.x + area.width / 2.0) * zoom;
+        offsetY = height / 2.0 - (area.y + area.height / 2.0) * zoom;
+        repaint();
+    }
 
-            // Create a centroid node in the new tree if we haven't already
-            Tree<NodeData,EdgeData>.Node centroidTreeNode;
-            if (centroidMapping.containsKey(centroid)) {
-                centroidTreeNode = centroidMapping.get(centroid);
-            } else {
-                centroidTreeNode = centroidTree.addNode(centroid.getData());
-                centroidMapping.put(centroid, centroidTreeNode);
-            }
+    private int screenX(int x) {
+        return (int) Math.floor(x * zoom + offsetX);
+    }
 
-            // If we have a parent centroid, connect them
-            if (parentCentroid != null && centroidMapping.containsKey(parentCentroid)) {
-                centroidTree.addEdge(new EdgeData(1.0),
-                        centroidMapping.get(parentCentroid),
-                        centroidTreeNode);
-            }
+    private int screenY(int y) {
+        return (int) Math.floor(y * zoom + offsetY);
+    }
 
-            // Find the connected components after removing the centroid
-            List<Tree<NodeData,EdgeData>.Node> components = findComponents(centroid, centroidMarked);
+    // Screen rectangle to the tree rectangle covering it
+    private Rectangle toTree(Rectangle screen, Rectangle result) {
+        int x = (int) Math.floor((screen.x - offsetX) / zoom);
+        int y = (int) Math.floor((screen.y - offsetY) / zoom);
+        int maxX = (int) Math.ceil((screen.x + screen.width - offsetX) / zoom);
+        int maxY = (int) Math.ceil((screen.y + screen.height - offsetY) / zoom);
+        result.setBounds(x, y, maxX - x, maxY - y);
+        return result;
+    }
 
-            // Recursively decompose each component
-            for (Tree<NodeData,EdgeData>.Node component : components) {
-                getCentroidRecursive(component, centroid, centroidTree,
-                        centroidMarked, centroidMapping);
-            }
+    // Tree rectangle to the screen rectangle covering it
+    private Rectangle toScreen(Rectangle area, Rectangle result) {
+        int x = (int) Math.floor(area.x * zoom + offsetX);
+        int y = (int) Math.floor(area.y * zoom + offsetY);
+        int maxX = (int) Math.ceil((area.x + area.width) * zoom + offsetX);
+        int maxY = (int) Math.ceil((area.y + area.height) * zoom + offsetY);
+        result.setBounds(x - 1, y - 1, maxX - x + 2, maxY - y + 2);
+        return result;
+    }
 
-            return centroid;
-        }
+    // Reset to default colours
+     private void resetColors() {
+         if (tree != null) {
+             for (Tree<NodeData,EdgeData>.Edge edge:tree.getEdges()){
+                 edge.getData().setColor(Palette.EDGE);
+             }
+             for (Tree<NodeData,EdgeData>.Node node:tree.getNodes()){
+                 node.getData().setColor(Palette.NODE);
+             }
+         }
+     }
 
-        private int getSubtreeSize(Tree<NodeData,EdgeData>.Node root, Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            Set<Tree<NodeData,EdgeData>.Node> visited = new HashSet<>();
-            return countSubtreeNodes(root, null, visited, centroidMarked);
+    // Switches between maintaining the centroid tree while editing and rebuilding it on every run
+    public void setDynamicDecomposition(boolean on) {
+        if (on && dynamicDecomposition == null) {
+            dynamicDecomposition = new DynamicCentroidTree(tree);
+        } else if (!on && dynamicDecomposition != null) {
+            dynamicDecomposition.detach();
+            dynamicDecomposition = null;
         }
+    }
 
-        private int countSubtreeNodes(Tree<NodeData,EdgeData>.Node current,
-                                      Tree<NodeData,EdgeData>.Node parent,
-                                      Set<Tree<NodeData,EdgeData>.Node> visited,
-                                      Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            if (visited.contains(current) || centroidMarked.contains(current)) return 0;
-
-            visited.add(current);
-            int count = 1;
-
-            for (Tree<NodeData,EdgeData>.Node neighbor : current.getNeighbors()) {
-                if (neighbor != parent) {
-                    count += countSubtreeNodes(neighbor, current, visited, centroidMarked);
+    /*
+        Lays the tree out with TreeLayout on a background thread, showing a
+        progress bar meanwhile. The layout works on a snapshot taken now; if
+        the tree changes structurally before it finishes, the result is dropped.
+     */
+    public void startLayout() {
+        if (layoutWorker != null || tree == null || tree.getNodes().isEmpty()) {
+            return;
+        }
+        layoutWorker = new LayoutWorker(TreeSnapshot.of(tree));
+        layoutWorker.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent e) {
+                if ("progress".equals(e.getPropertyName())) {
+                    repaint(PROGRESS_BAR.x, PROGRESS_BAR.y, PROGRESS_BAR.width + 1, PROGRESS_BAR.height + 1);
                 }
             }
+        });
+        layoutWorker.execute();
+    }
 
-            return count;
-        }
-        private Tree<NodeData,EdgeData>.Node findCentroid(Tree<NodeData,EdgeData>.Node root, Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            int[] totalSize = {0};
-            Map<Tree<NodeData,EdgeData>.Node, Integer> subtreeSize = new HashMap<>();
+    public boolean isLayoutRunning() {
+        return layoutWorker != null;
+    }
 
-            // First DFS to calculate subtree sizes
-            System.out.print("Subtree rooted at: " + root.getData().getText() + ".\n" + "Size of tree: " + totalSize[0] + ", ");
-            calculateSubtreeSizes(root, null, subtreeSize, totalSize, centroidMarked);
+    // Computes positions off the event dispatch thread and applies them on it
+    private class LayoutWorker extends SwingWorker<Point[], Void> implements TreeLayout.Progress {
+        private final TreeSnapshot snapshot;
 
-            // Second DFS to find the centroid
-            return findCentroidHelper(root, null, subtreeSize, totalSize[0], centroidMarked);
+        LayoutWorker(TreeSnapshot snapshot) {
+            this.snapshot = snapshot;
         }
 
-        private void calculateSubtreeSizes(Tree<NodeData,EdgeData>.Node current, Tree<NodeData,EdgeData>.Node parent,
-                                           Map<Tree<NodeData,EdgeData>.Node, Integer> subtreeSize,
-                                           int[] totalSize,
-                                           Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            if (centroidMarked.contains(current)) return;
-
-
-            totalSize[0]++;
-            subtreeSize.put(current, 1);
-            System.out.print(totalSize[0] + ", ");
-            for (Tree<NodeData,EdgeData>.Node neighbor : current.getNeighbors()) {
-                if (neighbor != parent && !centroidMarked.contains(neighbor)) {
-
-                    calculateSubtreeSizes(neighbor, current, subtreeSize, totalSize, centroidMarked);
-                    subtreeSize.put(current, subtreeSize.get(current) + subtreeSize.get(neighbor));
-                }
-            }
+        protected Point[] doInBackground() {
+            TreeLayout layout = new TreeLayout();
+            layout.setProgress(this);
+            return layout.layout(snapshot.getTree());
         }
 
-        private Tree<NodeData,EdgeData>.Node findCentroidHelper(Tree<NodeData,EdgeData>.Node current, Tree<NodeData,EdgeData>.Node parent,
-                                                                Map<Tree<NodeData,EdgeData>.Node, Integer> subtreeSize,
-                                                                int totalSize,
-                                                                Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            boolean isCentroid = true;
-            Tree<NodeData,EdgeData>.Node heaviestChild = null;
-            int maxChildSize = 0;
-
-            for (Tree.Node neighbor : current.getNeighbors()) {
-                if (neighbor != parent && !centroidMarked.contains(neighbor)) {
-                    // Check if any subtree is too large
-                    if (subtreeSize.get(neighbor) > totalSize / 2) {
-                        isCentroid = false;
-                    }
-
-                    // Find the heaviest child
-                    if (heaviestChild == null || subtreeSize.get(neighbor) > maxChildSize) {
-                        heaviestChild = neighbor;
-                        maxChildSize = subtreeSize.get(neighbor);
-                    }
-                }
-            }
-            // Check if current node is a valid centroid
-            int remainingSize = totalSize - subtreeSize.get(current);
-            if (isCentroid && remainingSize <= totalSize / 2) {
-                return current;
+        // Called from the layout's threads, which may report out of order
+        public synchronized void placed(int count, int total) {
+            int percent = (int) (100L * count / total);
+            if (percent > getProgress()) {
+                setProgress(percent);
             }
-
-            // If not, recursively find centroid in the heaviest child
-            return findCentroidHelper(heaviestChild, current, subtreeSize, totalSize, centroidMarked);
         }
 
-        private List<Tree<NodeData,EdgeData>.Node> findComponents(Tree<NodeData,EdgeData>.Node centroid, Set<Tree<NodeData,EdgeData>.Node> centroidMarked) {
-            List<Tree<NodeData,EdgeData>.Node> components = new ArrayList<>();
-            System.out.print("\nComponent rooted at centroid: " + centroid.getData().getText() + "\nComponent Node: ");
-            for (Tree<NodeData,EdgeData>.Node neighbor : centroid.getNeighbors()) {
-                if (!centroidMarked.contains(neighbor)) {
-                    System.out.print(neighbor.getData().getText() + ", ");
-                    components.add(neighbor);
-                }
+        @Override
+        protected void done() {
+            layoutWorker = null;
+            repaint(PROGRESS_BAR.x, PROGRESS_BAR.y, PROGRESS_BAR.width + 1, PROGRESS_BAR.height + 1);
+            Point[] positions;
+            try {
+                positions = get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                System.out.println("Layout failed: " + e.getCause());
+                return;
+            }
+            if (snapshot.isStale()) {
+                System.out.println("Tree changed during layout, layout dropped.");
+                return;
             }
-            System.out.print("\nMarked centroids: ");
-            for (Tree<NodeData,EdgeData>.Node node : centroidMarked) {
-                System.out.print(node.getData().getText() + ", ");
+            ArrayList<Tree<NodeData,EdgeData>.Node> nodes = tree.getNodes();
+            Rectangle area = new Rectangle(positions[0]);
+            for (int v = 0; v < positions.length; v++) {
+                nodes.get(v).getData().setPosition(positions[v]);
+                area.add(positions[v]);
             }
-            return components;
+            area.grow(EdgeGeometry.NODE_RADIUS + LABEL_MARGIN, EdgeGeometry.NODE_RADIUS + LABEL_MARGIN);
+            // Every position changed, so index them all at once
+            grid.reindex();
+            fitToView(area);
         }
+    }
+
+    // Replays decompositions once they are computed
+    public DecompositionPlayer getPlayer() {
+        return player;
+    }
 
-        protected Void doInBackground() {
-            // Reset all nodes and edges to default color before starting
-            resetColors();
-//            for (Tree<NodeData, EdgeData>.Node node : tree.getNodes()) {
-//                publish(node);
-//                try {
-//                    Thread.sleep(500); // Longer pause for better visualization
-//                } catch (InterruptedException ignored) {}
-//            }
-            // Iterate through centroids for visualization
-            for (Tree<NodeData, EdgeData>.Node centroid : decompositionTree.getNodes()) {
-                publish(centroid);
-                try {
-                    Thread.sleep(2000); // Longer pause for better visualization
-                } catch (InterruptedException ignored) {}
+    public void startCentroidDecomposition() {
+        if (tree != null && !tree.getNodes().isEmpty()) {
+            System.out.println("Starting centroid decomposition.");
+            player.clear();
+            DecompositionTimeline cached = (dynamicDecomposition == null)
+                    ? cache.get(fingerprint.getKey(), TIMELINE)
+                    : null;
+            if (cached != null) {
+                // Unchanged since an earlier run
+                play(cached);
+            } else {
+                new DecompositionWorker(tree).execute();
             }
-            return null;
+        } else {
+            System.out.println("Tree is empty.");
+            //instr.setText("Tree is empty or invalid.");
         }
+    }
 
-        protected void process(List<Tree<NodeData, EdgeData>.Node> centroids) {
-            // Get the last centroid to process
-            Tree<NodeData, EdgeData>.Node lastCentroid = centroids.get(centroids.size() - 1);
+    /*
+        Computes the decomposition off the event dispatch thread and hands
+        the resulting timeline to the player. All pacing is done by the
+        player's timer, so neither thread sleeps.
+     */
+    public class DecompositionWorker extends SwingWorker<DecompositionTimeline, Void> {
+        // Decomposition already maintained while editing, or null
+        private final Decomposition maintained;
 
-            // Visualization stages
-            //highlightPreprocessing(lastCentroid);
-            repaint();
+        // The tree as it is now, decomposed when nothing is maintained
+        private final TreeSnapshot snapshot;
 
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ignored) {}
+        public DecompositionWorker(Tree<NodeData, EdgeData> tree) {
+            // Both are taken here, on the event dispatch thread, so they agree
+            snapshot = TreeSnapshot.of(tree, fingerprint);
+            maintained = (dynamicDecomposition != null) ? dynamicDecomposition.toDecomposition() : null;
+        }
 
-            highlightCentroid(lastCentroid);
-            repaint();
+        protected DecompositionTimeline doInBackground() {
+            // The engine works on node ids and doesn't touch Swing
+            if (maintained != null) {
+                return new DecompositionTimeline(maintained);
+            }
+            return cache.get(snapshot, TIMELINE);
         }
 
         @Override
         protected void done() {
-            System.out.println("Centroid Decomposition Complete");
-            // Optional: Reset colors to default after completion
-            resetColors();
-            repaint();
-        }
-
-        // Enhanced node highlighting methods
-        private void highlightPreprocessing(Tree<NodeData, EdgeData>.Node node) {
-            // Reset all colors first
-            resetColors();
-
-            // Highlight the current subtree in a lighter color
-            for (Tree<NodeData, EdgeData>.Node neighbor : node.getNeighbors()) {
-                neighbor.getData().setColor(new Color(173, 216, 230)); // Light blue for preprocessing
+            DecompositionTimeline timeline;
+            try {
+                timeline = get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                System.out.println("Centroid decomposition failed: " + e.getCause());
+                return;
             }
-
-            // Mark current node with a processing color
-            node.getData().setColor(new Color(255, 165, 0)); // Orange for processing
-        }
-
-        private void highlightCentroid(Tree<NodeData, EdgeData>.Node node) {
-            // Highlight the centroid in blue
-            node.getData().setColor(Color.BLUE);
-
-            // Highlight edges connected to the centroid in red
-            for (Tree<NodeData, EdgeData>.Edge edge : node.getEdges()) {
-                edge.getData().setColor(Color.RED);
+            if (snapshot.isStale()) {
+                System.out.println("Tree changed during decomposition, result dropped.");
+                return;
             }
+            System.out.println("Centroid Decomposition Complete");
+            play(timeline);
         }
+    }
 
-
+    // Starts from default colours, then shows the centroids one by one
+    private void play(DecompositionTimeline timeline) {
+        resetColors();
+        repaint();
+        player.load(timeline);
+        player.play();
     }
 
     /**
      * Repaint every thing to the default color
      */
     public void refresh(){
-        if (tree != null) {
-            for (Tree<NodeData,EdgeData>.Edge edge:tree.getEdges()){
-                edge.getData().setColor( new Color(76, 2, 4));
-            }
-            for (Tree<NodeData,EdgeData>.Node node:tree.getNodes()){
-                node.getData().setColor(new Color(58, 5, 94));
-            }
-        }
-
+        player.clear();
+        resetColors();
         repaint();
     }
 
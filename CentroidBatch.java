@@ -0,0 +1,155 @@
+import java.io.*;
+import java.nio.channels.*;
+
+/*
+    Headless entry point: reads a tree, decomposes it and writes the
+    centroid parent and depth of every node. Nothing here touches Swing or
+    AWT, so it runs on machines without a display.
+
+        java CentroidBatch [-full] [-verify] [-o output] [-save treefile] [input]
+
+    The input is read from the file, or from stdin when it is missing or "-".
+    A binary TreeFile is recognized by its header and mapped instead of
+    parsed; -save writes the tree in its CSR layout, which loads without a
+    copy.
+    Text input is an edge list read with EdgeListParser: the node count n,
+    then n - 1 edges given as "u v [distance]" with 0-based node ids; '#'
+    starts a comment. All malformed lines are reported before giving up.
+
+    Each output line is "node parent depth". Parent is -1 for the root
+    centroid and -2 for nodes in small components that were not decomposed,
+    whose depth is -1. With -full every node becomes a centroid.
+
+    -verify checks the result with DecompositionVerifier and prints its
+    depth and balance statistics to stderr; an invalid result is an error.
+ */
+public class CentroidBatch {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Malformed lines printed before the rest are only counted
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private CentroidBatch() {
+    }
+
+    public static void main(String[] args) {
+        boolean full = false;
+        boolean verify = false;
+        String inputName = null;
+        String outputName = null;
+        String saveName = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-full")) {
+                full = true;
+            } else if (args[i].equals("-verify")) {
+                verify = true;
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                outputName = args[++i];
+            } else if (args[i].equals("-save") && i + 1 < args.length) {
+                saveName = args[++i];
+            } else if (inputName == null) {
+                inputName = args[i];
+            } else {
+                System.err.println("Usage: java CentroidBatch [-full] [-verify] [-o output] [-save treefile] [input]");
+                System.exit(2);
+            }
+        }
+
+        try {
+            if ("-".equals(inputName)) {
+                inputName = null;
+            }
+            CompactTree tree;
+            if (inputName != null && TreeFile.isTreeFile(new File(inputName))) {
+                tree = TreeFile.load(new File(inputName));
+                checkTree(tree);
+            } else {
+                tree = readText(inputName);
+            }
+            if (saveName != null) {
+                TreeFile.writeCsr(tree, new File(saveName));
+            }
+
+            CentroidDecomposer decomposer = full ? new CentroidDecomposer(0) : new CentroidDecomposer();
+            Decomposition decomposition = decomposer.decompose(tree);
+            if (verify) {
+                DecompositionVerifier verifier = new DecompositionVerifier(tree, decomposition);
+                System.err.print(verifier.report());
+                if (!verifier.isValid()) {
+                    throw new IOException("decomposition failed verification");
+                }
+            }
+
+            OutputStream out = (outputName == null) ? System.out : new FileOutputStream(outputName);
+            try {
+                write(decomposition, out);
+            } finally {
+                if (outputName != null) {
+                    out.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("CentroidBatch: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Parses a text edge list, printing the first malformed lines and failing if there were any
+    private static CompactTree readText(String inputName) throws IOException {
+        EdgeListParser.CompactBuilder builder = new EdgeListParser.CompactBuilder();
+        EdgeListParser parser = new EdgeListParser(builder);
+        parser.setErrorSink(new EdgeListParser.ErrorSink() {
+            private int reported;
+
+            public void malformedLine(long line, String reason) {
+                if (reported++ < MAX_REPORTED_ERRORS) {
+                    System.err.println("CentroidBatch: line " + line + ": " + reason);
+                }
+            }
+        });
+        if (inputName == null) {
+            parser.parse(Channels.newChannel(System.in));
+        } else if (new File(inputName).isFile()) {
+            parser.parse(new File(inputName));
+        } else {
+            // Pipes and devices can't be mapped
+            FileInputStream in = new FileInputStream(inputName);
+            try {
+                parser.parse(in.getChannel());
+            } finally {
+                in.close();
+            }
+        }
+        if (parser.getMalformedLines() > 0) {
+            throw new IOException(parser.getMalformedLines() + " malformed lines");
+        }
+        CompactTree tree = builder.build(parser.numNodes());
+        checkTree(tree);
+        return tree;
+    }
+
+    // n - 1 edges without a cycle are connected
+    private static void checkTree(CompactTree tree) throws IOException {
+        if (tree.numEdges() != Math.max(0, tree.numNodes() - 1)) {
+            throw new IOException("expected " + Math.max(0, tree.numNodes() - 1) + " edges, found " + tree.numEdges());
+        }
+        if (!tree.isAcyclic()) {
+            throw new IOException("the edges contain a cycle");
+        }
+    }
+
+    private static void write(Decomposition decomposition, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "US-ASCII"), BUFFER_SIZE);
+        StringBuilder row = new StringBuilder();
+        int n = decomposition.numNodes();
+        for (int v = 0; v < n; v++) {
+            row.setLength(0);
+            row.append(v).append(' ')
+                    .append(decomposition.getParent(v)).append(' ')
+                    .append(decomposition.getDepth(v)).append('\n');
+            writer.append(row);
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,295 @@
+import java.nio.*;
+import java.util.*;
+
+/*
+    Iterative centroid decomposition engine.
+
+    Replaces the recursive DFS chain that used to live in Canvas.DecompositionWorker.
+    All traversals use explicit stacks and int arrays indexed by node id, so
+    path-like trees can't overflow the call stack and no maps are allocated
+    per level. The scratch arrays are kept between calls, which lets batch
+    jobs reuse one decomposer for many trees. Runs in O(n log n).
+
+    The centroid tree is the same as the one the recursive version produced:
+    decomposition starts at the first node, components of SMALL_COMPONENT
+    nodes or fewer are not decomposed, and components are visited in the
+    order of the centroid's edges. Query structures need every node in the
+    centroid tree and use new CentroidDecomposer(0) instead.
+
+    decompose only covers the component of the first node. decomposeForest
+    covers every component, in the order of their lowest node id, and gives
+    a centroid forest with one root per component.
+ */
+public class CentroidDecomposer {
+
+    // By default, components of this size or smaller are left out of the centroid tree
+    public static final int SMALL_COMPONENT = 2;
+
+    // Cutoff used by this decomposer, 0 decomposes down to single nodes
+    private final int smallComponent;
+
+    private DecompositionTrace trace = DecompositionTrace.NONE;
+
+    // CSR adjacency of the tree being decomposed, read in place, see CompactTree
+    private IntBuffer offsets;
+    private IntBuffer neighbors;
+
+    // Nodes already chosen as centroids
+    private boolean[] removed;
+
+    // Scratch arrays for the subtree size pass
+    private int[] dfsParent;
+    private int[] subtreeSize;
+    private int[] visitOrder;
+    private int[] stack;
+
+    // Pending components: root node and the centroid they hang off
+    private int[] pendingRoot;
+    private int[] pendingParent;
+
+
+    public CentroidDecomposer() {
+        this(SMALL_COMPONENT);
+    }
+
+    public CentroidDecomposer(int smallComponent) {
+        this.smallComponent = smallComponent;
+    }
+
+    public void setTrace(DecompositionTrace trace) {
+        this.trace = trace;
+    }
+
+    public Decomposition decompose(Tree<NodeData,EdgeData> tree) {
+        return decompose(CompactTree.fromTree(tree));
+    }
+
+    // Decomposes a CSR tree directly, without going through Tree objects
+    public Decomposition decompose(CompactTree tree) {
+        int n = tree.numNodes();
+        offsets = tree.getOffsetColumn();
+        neighbors = tree.getNeighborColumn();
+        ensureCapacity(n);
+
+        int[] parent = new int[n];
+        int[] depth = new int[n];
+        int[] order = new int[n];
+        Arrays.fill(parent, Decomposition.NOT_A_CENTROID);
+        Arrays.fill(depth, -1);
+        int numCentroids = 0;
+
+        if (n > 0) {
+            // Start from the first node, as the GUI always has
+            numCentroids = decomposeComponent(0, parent, depth, order, numCentroids);
+        }
+        return new Decomposition(parent, depth, order, numCentroids);
+    }
+
+    public Decomposition decomposeForest(Tree<NodeData,EdgeData> tree) {
+        return decomposeForest(CompactTree.fromTree(tree));
+    }
+
+    // Decomposes every component, each starting from its lowest node id
+    public Decomposition decomposeForest(CompactTree tree) {
+        int n = tree.numNodes();
+        offsets = tree.getOffsetColumn();
+        neighbors = tree.getNeighborColumn();
+        ensureCapacity(n);
+
+        int[] parent = new int[n];
+        int[] depth = new int[n];
+        int[] order = new int[n];
+        Arrays.fill(parent, Decomposition.NOT_A_CENTROID);
+        Arrays.fill(depth, -1);
+        int numCentroids = 0;
+
+        // The size arrays are free until the first component is decomposed
+        int numComponents = findComponents(offsets, neighbors, pendingRoot, pendingParent, stack, visitOrder);
+        int[] first = Arrays.copyOf(pendingRoot, numComponents);
+        for (int c = 0; c < numComponents; c++) {
+            numCentroids = decomposeComponent(first[c], parent, depth, order, numCentroids);
+        }
+        return new Decomposition(parent, depth, order, numCentroids);
+    }
+
+    /*
+        Decomposes the component containing start, appending its centroids
+        to order from position numCentroids. Returns the new number of centroids.
+     */
+    private int decomposeComponent(int start, int[] parent, int[] depth, int[] order, int numCentroids) {
+        boolean traceSteps = trace.getLevel().compareTo(DecompositionTrace.Level.STEPS) >= 0;
+        boolean traceDetail = trace.getLevel().compareTo(DecompositionTrace.Level.DETAIL) >= 0;
+
+        int pending = 0;
+        pendingRoot[pending] = start;
+        pendingParent[pending] = Decomposition.NO_PARENT;
+        pending++;
+
+        while (pending > 0) {
+            pending--;
+            int root = pendingRoot[pending];
+            int parentCentroid = pendingParent[pending];
+
+            int componentSize = calculateSubtreeSizes(offsets, neighbors, removed,
+                    dfsParent, subtreeSize, visitOrder, stack, root);
+            if (traceDetail) {
+                trace.subtreeSizes(root, componentSize);
+            }
+            if (componentSize <= smallComponent) {
+                continue;
+            }
+
+            int centroid = findCentroid(offsets, neighbors, removed,
+                    dfsParent, subtreeSize, root, componentSize);
+            removed[centroid] = true;
+            parent[centroid] = parentCentroid;
+            depth[centroid] = (parentCentroid < 0) ? 0 : depth[parentCentroid] + 1;
+            order[numCentroids++] = centroid;
+            if (traceSteps) {
+                trace.centroidChosen(centroid, parentCentroid, componentSize);
+            }
+
+            // Push the remaining components in reverse so the first edge is handled first
+            int split = pending;
+            for (int e = offsets.get(centroid + 1) - 1; e >= offsets.get(centroid); e--) {
+                int neighbor = neighbors.get(e);
+                if (!removed[neighbor]) {
+                    pendingRoot[pending] = neighbor;
+                    pendingParent[pending] = centroid;
+                    pending++;
+                }
+            }
+            if (traceSteps) {
+                trace.componentsSplit(centroid, pending - split);
+            }
+        }
+        return numCentroids;
+    }
+
+    private void ensureCapacity(int n) {
+        if (removed == null || removed.length < n) {
+            removed = new boolean[n];
+            dfsParent = new int[n];
+            subtreeSize = new int[n];
+            visitOrder = new int[n];
+            stack = new int[n];
+            pendingRoot = new int[n];
+            pendingParent = new int[n];
+        } else {
+            Arrays.fill(removed, 0, n, false);
+        }
+    }
+
+    /*
+        Computes subtree sizes of the component containing root, rooted at root,
+        skipping removed nodes. Returns the size of the component. The nodes
+        are left in visitOrder in preorder, so every subtree is a contiguous run.
+     */
+    static int calculateSubtreeSizes(IntBuffer offsets, IntBuffer neighbors, boolean[] removed,
+                                     int[] dfsParent, int[] subtreeSize,
+                                     int[] visitOrder, int[] stack, int root) {
+        return calculateSubtreeSizes(offsets, neighbors, removed, dfsParent, subtreeSize, visitOrder, stack, 0, root);
+    }
+
+    /*
+        The same, using visitOrder and stack from index base on, so tasks of
+        ParallelCentroidDecomposer can share them in disjoint slices. Both
+        need room for as many entries as the component has nodes.
+     */
+    static int calculateSubtreeSizes(IntBuffer offsets, IntBuffer neighbors, boolean[] removed,
+                                     int[] dfsParent, int[] subtreeSize,
+                                     int[] visitOrder, int[] stack, int base, int root) {
+        int count = base;
+        int top = base;
+        stack[top++] = root;
+        dfsParent[root] = -1;
+
+        while (top > base) {
+            int v = stack[--top];
+            visitOrder[count++] = v;
+            subtreeSize[v] = 1;
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                int neighbor = neighbors.get(e);
+                if (neighbor != dfsParent[v] && !removed[neighbor]) {
+                    dfsParent[neighbor] = v;
+                    stack[top++] = neighbor;
+                }
+            }
+        }
+
+        // Children are visited after their parents, so accumulate in reverse
+        for (int i = count - 1; i > base; i--) {
+            int v = visitOrder[i];
+            subtreeSize[dfsParent[v]] += subtreeSize[v];
+        }
+        return count - base;
+    }
+
+    /*
+        Finds the connected components in one pass. The lowest node id of
+        component c goes to first[c] and its size to size[c], components in
+        the order of those ids. Returns the number of components. The other
+        two arrays are scratch space of n entries.
+     */
+    static int findComponents(IntBuffer offsets, IntBuffer neighbors, int[] first, int[] size,
+                              int[] stack, int[] component) {
+        int n = offsets.limit() - 1;
+        Arrays.fill(component, 0, n, -1);
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            if (component[v] >= 0) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = v;
+            component[v] = count;
+            int members = 0;
+            while (top > 0) {
+                int u = stack[--top];
+                members++;
+                for (int e = offsets.get(u); e < offsets.get(u + 1); e++) {
+                    if (component[neighbors.get(e)] < 0) {
+                        component[neighbors.get(e)] = count;
+                        stack[top++] = neighbors.get(e);
+                    }
+                }
+            }
+            first[count] = v;
+            size[count] = members;
+            count++;
+        }
+        return count;
+    }
+
+    // Walk from the root towards the heaviest child until no part is larger than half
+    static int findCentroid(IntBuffer offsets, IntBuffer neighbors, boolean[] removed,
+                            int[] dfsParent, int[] subtreeSize, int root, int totalSize) {
+        int half = totalSize / 2;
+        int current = root;
+
+        while (true) {
+            boolean isCentroid = true;
+            int heaviestChild = -1;
+            int maxChildSize = 0;
+
+            for (int e = offsets.get(current); e < offsets.get(current + 1); e++) {
+                int neighbor = neighbors.get(e);
+                if (neighbor != dfsParent[current] && !removed[neighbor]) {
+                    if (subtreeSize[neighbor] > half) {
+                        isCentroid = false;
+                    }
+                    if (heaviestChild == -1 || subtreeSize[neighbor] > maxChildSize) {
+                        heaviestChild = neighbor;
+                        maxChildSize = subtreeSize[neighbor];
+                    }
+                }
+            }
+
+            int remainingSize = totalSize - subtreeSize[current];
+            if (isCentroid && remainingSize <= half) {
+                return current;
+            }
+            current = heaviestChild;
+        }
+    }
+}
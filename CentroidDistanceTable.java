@@ -0,0 +1,152 @@
+/*
+    Centroid ancestors of every node and its weighted distance to each one,
+    stored in flat primitive arrays (n log n entries in total).
+
+    The entries of node v are ancestorStart[v] .. ancestorStart[v+1], one per
+    level of the centroid tree from the top centroid down to v itself, so the
+    entry for level L is at ancestorStart[v] + L. This is the shared base of
+    the centroid query structures, and on its own it is a distance oracle:
+    the path between u and v passes through their deepest common centroid
+    ancestor, which makes dist(u, v) O(log n).
+
+    Needs a full decomposition (new CentroidDecomposer(0)), of every
+    component for a forest; nodes left out of the centroid tree have no
+    entries.
+ */
+public class CentroidDistanceTable {
+
+    private final int n;
+
+    private final Decomposition decomposition;
+
+    private final int[] ancestorStart;
+
+    private final int[] ancestor;
+
+    private final double[] ancestorDistance;
+
+
+    public CentroidDistanceTable(Tree<NodeData,EdgeData> tree) {
+        this(CompactTree.fromTree(tree));
+    }
+
+    public CentroidDistanceTable(CompactTree tree) {
+        this(tree, new CentroidDecomposer(0).decomposeForest(tree));
+    }
+
+    public CentroidDistanceTable(CompactTree tree, Decomposition decomposition) {
+        n = tree.numNodes();
+        this.decomposition = decomposition;
+
+        ancestorStart = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            ancestorStart[v + 1] = ancestorStart[v] + decomposition.getDepth(v) + 1;
+        }
+        ancestor = new int[ancestorStart[n]];
+        ancestorDistance = new double[ancestorStart[n]];
+
+        fillDistances(tree);
+    }
+
+    // Walks each centroid's component once. O(n log n) in total.
+    private void fillDistances(CompactTree tree) {
+        int[] offsets = tree.getOffsets();
+        int[] neighbors = tree.getNeighbors();
+        double[] weights = tree.getWeights();
+
+        int[] stack = new int[n];
+        int[] from = new int[n];
+        double[] distance = new double[n];
+
+        for (int c = 0; c < n; c++) {
+            int level = decomposition.getDepth(c);
+            if (level < 0) {
+                continue;
+            }
+            int top = 0;
+            stack[top] = c;
+            from[top] = -1;
+            distance[top] = 0.0;
+            top++;
+
+            while (top > 0) {
+                top--;
+                int v = stack[top];
+                int parent = from[top];
+                double d = distance[top];
+                ancestor[ancestorStart[v] + level] = c;
+                ancestorDistance[ancestorStart[v] + level] = d;
+
+                // The component of c is everything below it in the centroid tree
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int neighbor = neighbors[e];
+                    if (neighbor != parent && decomposition.getDepth(neighbor) > level) {
+                        stack[top] = neighbor;
+                        from[top] = v;
+                        distance[top] = d + weights[e];
+                        top++;
+                    }
+                }
+            }
+        }
+    }
+
+    public int numNodes() {
+        return n;
+    }
+
+    public Decomposition getDecomposition() {
+        return decomposition;
+    }
+
+    // Number of centroid ancestors of v, counting v itself
+    public int numLevels(int v) {
+        return ancestorStart[v + 1] - ancestorStart[v];
+    }
+
+    public int getAncestor(int v, int level) {
+        return ancestor[ancestorStart[v] + level];
+    }
+
+    public double getDistance(int v, int level) {
+        return ancestorDistance[ancestorStart[v] + level];
+    }
+
+    // The raw arrays are shared, not copied; callers must not modify them
+
+    public int[] getAncestorStart() {
+        return ancestorStart;
+    }
+
+    public int[] getAncestors() {
+        return ancestor;
+    }
+
+    public double[] getAncestorDistances() {
+        return ancestorDistance;
+    }
+
+    // Weighted distance between u and v, or infinity if they aren't connected
+    public double distance(int u, int v) {
+        int startU = ancestorStart[u];
+        int startV = ancestorStart[v];
+        int levels = Math.min(ancestorStart[u + 1] - startU, ancestorStart[v + 1] - startV);
+
+        // Ancestors agree down to the deepest common one
+        int common = -1;
+        while (common + 1 < levels && ancestor[startU + common + 1] == ancestor[startV + common + 1]) {
+            common++;
+        }
+        if (common < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return ancestorDistance[startU + common] + ancestorDistance[startV + common];
+    }
+
+    // Batched distance queries: result[i] = distance(us[i], vs[i])
+    public void distances(int[] us, int[] vs, int count, double[] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = distance(us[i], vs[i]);
+        }
+    }
+}
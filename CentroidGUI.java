@@ -1,6 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.*;
 
 
  // Implements a GUI for the centroid visualization
@@ -26,15 +27,38 @@ public class CentroidGUI {
     // Button to initialize centroid decomposition
     private JButton centroidDecomposeButton;
 
+    // Lay the tree out automatically
+    private JButton layoutButton;
+
     // Refresh the screen
     private JButton rfButton;
 
+    // Playback of the decomposition
+    private JButton playButton;
+    private JButton stepButton;
+    private JLabel speedLabel;
+    private JSlider speedSlider;
+    private JLabel positionLabel;
+    private JSlider positionSlider;
+
+    // Set while the position slider follows the player, so its events aren't taken as scrubbing
+    private boolean followingPlayer;
+
     // Set input mode
     private InputMode mode = InputMode.ADD_NODES;
 
     // Remember the node where the last mousedown event occurred
     private Tree<NodeData,EdgeData>.Node nodeUnderMouse;
 
+    // Radius around a node that counts as clicking on it
+    private static final int HIT_RADIUS = 40;
+
+    // Index over node positions for the hit tests, shared with the canvas
+    private NodeGrid nodeGrid;
+
+    // Screen point the current pan drag last passed, or null when not panning
+    private Point panFrom;
+
     /**
      *  Schedules a job for the event dispatching thread
      *  creating and showing the application GUI.
@@ -73,11 +97,13 @@ public class CentroidGUI {
         JPanel panel1 = new JPanel();
         panel1.setLayout(new BorderLayout());
         canvas = new Canvas();
+        nodeGrid = canvas.getNodeGrid();
         GraphMouseListener gml = new GraphMouseListener();
         canvas.addMouseListener(gml);
         canvas.addMouseMotionListener(gml);
+        canvas.addMouseWheelListener(gml);
         panel1.add(canvas);
-        instr = new JLabel("Click to add new nodes; drag to move.");
+        instr = new JLabel("Click to add new nodes; drag to move. Scroll to zoom, drag the background to pan.");
         panel1.add(instr,BorderLayout.NORTH);
         pane.add(panel1);
 
@@ -105,51 +131,62 @@ public class CentroidGUI {
 
         // decomp button
         JPanel panel3 = new JPanel();
-        panel3.setLayout(new GridLayout(2,1));
+        panel3.setLayout(new GridLayout(3,1));
 
         centroidDecomposeButton = new JButton("Centroid Decomposition");
         panel3.add(centroidDecomposeButton);
         centroidDecomposeButton.addActionListener(new CentroidDecomposeListener());
 
+        layoutButton = new JButton("Auto Layout");
+        panel3.add(layoutButton);
+        layoutButton.addActionListener(new LayoutListener());
+
         rfButton = new JButton("Refresh");
         panel3.add(rfButton);
         rfButton.addActionListener(new RFListener());
         pane.add(panel3);
+
+        // playback controls
+        JPanel panel4 = new JPanel();
+        panel4.setLayout(new GridLayout(6,1));
+
+        playButton = new JButton("Play");
+        panel4.add(playButton);
+        playButton.addActionListener(new PlayListener());
+
+        stepButton = new JButton("Step");
+        panel4.add(stepButton);
+        stepButton.addActionListener(new StepListener());
+
+        speedLabel = new JLabel();
+        panel4.add(speedLabel);
+        // Ten slider steps per factor of ten, from 0.1 to 10000 steps per second
+        speedSlider = new JSlider(0, 50, 10);
+        panel4.add(speedSlider);
+        speedSlider.addChangeListener(new SpeedListener());
+
+        positionLabel = new JLabel();
+        panel4.add(positionLabel);
+        positionSlider = new JSlider(0, 0, 0);
+        panel4.add(positionSlider);
+        positionSlider.addChangeListener(new ScrubListener());
+        pane.add(panel4);
+
+        canvas.getPlayer().addListener(new PlayerListener());
+        updateSpeed();
+        updatePlayback(0, 0, false);
     }
 
     /**
-     * Returns a node found within the drawing radius of the cursor,
-     * or null if none
+     * Returns the closest node within the drawing radius of the cursor,
+     * or null if none. Coordinates are tree positions, see Canvas.toTree
      */
-    @SuppressWarnings("unchecked")
-
     public Tree<NodeData,EdgeData>.Node findClosestNode(int x, int y) {
-        Tree.Node nearbyNode = null;
-        for (Tree<NodeData,EdgeData>.Node node : canvas.tree.getNodes()){
-            Point p = node.getData().getPosition();
-            if (p.distance(x,y)<=40){
-                nearbyNode = node;
-            }
-        }
-        return nearbyNode;
+        return nodeGrid.nodeWithin(x, y, HIT_RADIUS);
     }
 
     public Tree<NodeData,EdgeData>.Node findNearestParent(int x, int y) {
-        Tree.Node closestParent = null;
-
-        Point p = new Point(10000,10000); // Initialize to big
-        double minDistance = p.distance(x,y);
-
-        for (Tree<NodeData,EdgeData>.Node node : canvas.tree.getNodes()){
-            p = node.getData().getPosition() ;
-
-            if (p.distance(x,y)<=minDistance){
-
-                minDistance = p.distance(x,y);
-                closestParent = node;
-            }
-        }
-        return closestParent;
+        return nodeGrid.nearest(x, y);
     }
 
     // Constants for recording the input mode
@@ -198,6 +235,74 @@ public class CentroidGUI {
         }
     }
 
+    private class LayoutListener implements ActionListener {
+        public void actionPerformed(ActionEvent e) {
+            if (canvas.isLayoutRunning()) {
+                Toolkit.getDefaultToolkit().beep();
+                return;
+            }
+            canvas.startLayout();
+            instr.setText("Laying out the tree...");
+        }
+    }
+
+    private class PlayListener implements ActionListener {
+        public void actionPerformed(ActionEvent e) {
+            DecompositionPlayer player = canvas.getPlayer();
+            if (player.isPlaying()) {
+                player.pause();
+            } else {
+                player.play();
+            }
+        }
+    }
+
+    private class StepListener implements ActionListener {
+        public void actionPerformed(ActionEvent e) {
+            canvas.getPlayer().step();
+        }
+    }
+
+    private class SpeedListener implements ChangeListener {
+        public void stateChanged(ChangeEvent e) {
+            updateSpeed();
+        }
+    }
+
+    private class ScrubListener implements ChangeListener {
+        public void stateChanged(ChangeEvent e) {
+            if (!followingPlayer) {
+                canvas.getPlayer().pause();
+                canvas.getPlayer().seek(positionSlider.getValue());
+            }
+        }
+    }
+
+    private class PlayerListener implements DecompositionPlayer.Listener {
+        public void positionChanged(int position, int length, boolean playing) {
+            updatePlayback(position, length, playing);
+        }
+    }
+
+    private void updateSpeed() {
+        double speed = Math.pow(10, speedSlider.getValue() / 10.0 - 1);
+        canvas.getPlayer().setSpeed(speed);
+        speedLabel.setText(String.format("Speed: %.3g steps/s", speed));
+    }
+
+    private void updatePlayback(int position, int length, boolean playing) {
+        boolean loaded = canvas.getPlayer().isLoaded();
+        playButton.setText(playing ? "Pause" : "Play");
+        playButton.setEnabled(loaded);
+        stepButton.setEnabled(loaded && position < length);
+        positionSlider.setEnabled(loaded);
+        positionLabel.setText("Step " + position + " of " + length);
+        followingPlayer = true;
+        positionSlider.setMaximum(length);
+        positionSlider.setValue(position);
+        followingPlayer = false;
+    }
+
     // Refresh listener
     private class RFListener implements ActionListener {
 
@@ -217,27 +322,29 @@ public class CentroidGUI {
         // Responds to contextual click event depending on mode
         @SuppressWarnings("unchecked")
         public void mouseClicked(MouseEvent e) {
-            Tree<NodeData,EdgeData>.Node closestNode = findClosestNode(e.getX(),e.getY()); // Cursor node
-            Tree<NodeData,EdgeData>.Node closestParent = findNearestParent(e.getX(),e.getY()); // Closest parent
+            Point p = canvas.toTree(e.getX(),e.getY()); // Cursor position in the tree
+            Tree<NodeData,EdgeData>.Node closestNode = findClosestNode(p.x,p.y); // Cursor node
             boolean work = false;
             switch (mode) {
                 case ADD_NODES:
                     if (closestNode==null){
                             char c = (char)(canvas.tree.numNodes()%26+65); // Cycle character identifiers
                             if (!canvas.tree.getNodes().isEmpty()){
+                                // Closest parent, looked up before the new node is there
+                                Tree<NodeData,EdgeData>.Node closestParent = findNearestParent(p.x,p.y);
                                 // Add node onto member tree
-                                canvas.tree.addNode((new NodeData(e.getPoint(),Character.toString(c))));
-                                // Refresh closest node
-                                Tree<NodeData,EdgeData>.Node thisNode = findClosestNode(e.getX(),e.getY());
-                                // Connect to "parent"
-                                canvas.tree.addEdge((new EdgeData(-1.0)),closestParent, thisNode);
+                                Tree<NodeData,EdgeData>.Node thisNode = canvas.tree.addNode((new NodeData(p,Character.toString(c))));
+                                // Connect to "parent", as long as it is drawn
+                                double distance = EdgeGeometry.length(closestParent.getData().getPosition(), p);
+                                canvas.tree.addEdge(new EdgeData(distance), closestParent, thisNode);
+                                canvas.repaintAround(thisNode);
 
                                 work = true;
                             } else{
-                                canvas.tree.addNode(new NodeData(e.getPoint(),Character.toString(c)));
+                                Tree<NodeData,EdgeData>.Node thisNode = canvas.tree.addNode(new NodeData(p,Character.toString(c)));
+                                canvas.repaintAround(thisNode);
                                 work = true;
                             }
-                            canvas.repaint();
                         }
                     if (!work){
                         Toolkit.getDefaultToolkit().beep();
@@ -245,8 +352,9 @@ public class CentroidGUI {
                     break;
                 case RMV_NODES:
                     if (closestNode!=null){
+                        // The area has to be taken while the node and its edges are still there
+                        canvas.repaintAround(closestNode);
                         canvas.tree.removeNode(closestNode);
-                        canvas.repaint();
                         work = true;
                     }
                     if (!work){
@@ -260,8 +368,9 @@ public class CentroidGUI {
                                 JFrame frame = new JFrame("Enter text");
                                 String text = JOptionPane.showInputDialog(frame, "Please enter new text.");
                                 if (text != null) {
+                                    canvas.repaintAround(closestNode);
                                     closestNode.getData().setText(text);
-                                    canvas.repaint();
+                                    canvas.repaintAround(closestNode);
                                     work = true;
                                 } else {
                                     Toolkit.getDefaultToolkit().beep();
@@ -276,13 +385,18 @@ public class CentroidGUI {
 
         //Records point under mousedown event in anticipation of possible drag
         public void mousePressed(MouseEvent e) {
-            nodeUnderMouse = findClosestNode(e.getX(),e.getY());
+            Point p = canvas.toTree(e.getX(),e.getY());
+            nodeUnderMouse = findClosestNode(p.x,p.y);
+            // Dragging the background pans the view
+            panFrom = (nodeUnderMouse == null) ? e.getPoint() : null;
         }
 
         //Responds to mouseup event
         @SuppressWarnings("unchecked")
         public void mouseReleased(MouseEvent e) {
-            Tree<NodeData,EdgeData>.Node closestNode = findClosestNode(e.getX(),e.getY());
+            panFrom = null;
+            Point p = canvas.toTree(e.getX(),e.getY());
+            Tree<NodeData,EdgeData>.Node closestNode = findClosestNode(p.x,p.y);
 
             boolean work = false;
             switch (mode) {
@@ -298,8 +412,10 @@ public class CentroidGUI {
                                 try {
                                     JFrame frame = new JFrame("Enter a distance");
                                     String distance = JOptionPane.showInputDialog(frame, "Please enter the distance represented by this edge.");
+                                    canvas.repaintAround(closestNode);
                                     edge.getData().setDistance(Double.valueOf(distance));
-                                    canvas.repaint();
+                                    canvas.tree.edgeChanged(edge);
+                                    canvas.repaintAround(closestNode);
                                     work = true;
                                 } catch (Exception exception) {
                                     //do nothing
@@ -315,14 +431,27 @@ public class CentroidGUI {
 
         //Responds to mouse drag event
         public void mouseDragged(MouseEvent e) {
+            if (panFrom != null) {
+                canvas.pan(e.getX() - panFrom.x, e.getY() - panFrom.y);
+                panFrom = e.getPoint();
+                return;
+            }
             // test if the mouse drags on a node, and make sure the node is in the displaying area(r=40)
             if(mode == InputMode.ADD_NODES && nodeUnderMouse != null
                     && e.getX()>=40 && e.getY()>=40
                     && e.getX()<=1460 && e.getY()<=860) {
-                nodeUnderMouse.getData().setPosition(e.getPoint());
-                canvas.repaint();
+                // Only the old and the new surroundings of the node change
+                canvas.repaintAround(nodeUnderMouse);
+                nodeGrid.move(nodeUnderMouse, canvas.toTree(e.getX(),e.getY()));
+                canvas.repaintAround(nodeUnderMouse);
             }
         }
+
+        // Zooms around the cursor, one step per wheel notch
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            canvas.zoomAt(e.getX(), e.getY(), Math.pow(1.1, -e.getPreciseWheelRotation()));
+        }
+
         // Empty but necessary to comply with MouseMotionListener interface.
         public void mouseMoved(MouseEvent e) {
             nodeUnderMouse = null;
@@ -0,0 +1,263 @@
+import java.awt.*;
+import java.nio.*;
+import java.util.*;
+
+/*
+    Frozen, read-optimized copy of a Tree<NodeData,EdgeData> in compressed
+    sparse row form. The neighbors of node v are neighbors[offsets[v] .. offsets[v+1])
+    and weights holds the edge distance for the same slots, so every
+    undirected edge appears twice. Node ids are the ids of the source tree.
+
+    A tree can also wrap the columns of a mapped TreeFile, which takes no
+    heap beyond the object itself. offset, neighbor and weight and the
+    column views read the mapping in place, and isAcyclic, both centroid
+    decomposers and DecompositionVerifier read through the views, so
+    loading, checking and decomposing a mapped tree keeps the columns off
+    the heap. The array getters copy the columns to the heap on first use,
+    for the structures that index arrays directly.
+ */
+public class CompactTree {
+
+    // Volatile so a tree copied from its columns on one thread is seen whole on others
+    private volatile int[] offsets;
+
+    private volatile int[] neighbors;
+
+    private volatile double[] weights;
+
+    // Mapped columns, or null when the tree was built as arrays
+    private final IntBuffer offsetColumn;
+    private final IntBuffer neighborColumn;
+    private final DoubleBuffer weightColumn;
+
+    // Node data of the source tree, or null when the tree was built from raw edges
+    private final NodeData[] nodeData;
+
+
+    public CompactTree(int[] offsets, int[] neighbors, double[] weights, NodeData[] nodeData) {
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.weights = weights;
+        this.nodeData = nodeData;
+        offsetColumn = null;
+        neighborColumn = null;
+        weightColumn = null;
+    }
+
+    // Wraps mapped columns without copying them; the buffers must not change afterwards
+    public CompactTree(IntBuffer offsets, IntBuffer neighbors, DoubleBuffer weights) {
+        offsetColumn = offsets;
+        neighborColumn = neighbors;
+        weightColumn = weights;
+        nodeData = null;
+    }
+
+    // Converts a tree in O(n), keeping the edge order of every node
+    public static CompactTree fromTree(Tree<NodeData,EdgeData> tree) {
+        int n = tree.numNodes();
+        ArrayList<Tree<NodeData,EdgeData>.Node> nodes = tree.getNodes();
+
+        int[] offsets = new int[n + 1];
+        int[] neighbors = new int[2 * tree.numEdges()];
+        double[] weights = new double[neighbors.length];
+        NodeData[] nodeData = new NodeData[n];
+
+        int next = 0;
+        for (int v = 0; v < n; v++) {
+            Tree<NodeData,EdgeData>.Node node = nodes.get(v);
+            offsets[v] = next;
+            nodeData[v] = node.getData();
+            for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+                neighbors[next] = edge.getOtherNode(node).getId();
+                weights[next] = edge.getData().getDistance();
+                next++;
+            }
+        }
+        offsets[n] = next;
+        return new CompactTree(offsets, neighbors, weights, nodeData);
+    }
+
+    /*
+        Builds the CSR arrays from an edge list in O(n + m) with a counting pass.
+        Edge i joins from[i] and to[i] with length weight[i].
+     */
+    public static CompactTree fromEdges(int n, int[] from, int[] to, double[] weight, int m) {
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < m; i++) {
+            offsets[from[i] + 1]++;
+            offsets[to[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] neighbors = new int[2 * m];
+        double[] weights = new double[2 * m];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < m; i++) {
+            int a = from[i], b = to[i];
+            neighbors[next[a]] = b;
+            weights[next[a]++] = weight[i];
+            neighbors[next[b]] = a;
+            weights[next[b]++] = weight[i];
+        }
+        return new CompactTree(offsets, neighbors, weights, null);
+    }
+
+    /*
+        Expands back into a Tree in O(n). Node data is shared with the source
+        tree when there is one, otherwise nodes are labelled by id.
+     */
+    public Tree<NodeData,EdgeData> toTree() {
+        Tree<NodeData,EdgeData> tree = new Tree<NodeData,EdgeData>();
+        int n = numNodes();
+        for (int v = 0; v < n; v++) {
+            NodeData data = (nodeData != null) ? nodeData[v] : new NodeData(new Point(0, 0), Integer.toString(v));
+            tree.addNode(data);
+        }
+
+        ArrayList<Tree<NodeData,EdgeData>.Node> nodes = tree.getNodes();
+        int[] offsets = getOffsets();
+        int[] neighbors = getNeighbors();
+        double[] weights = getWeights();
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                // Each edge is stored twice, add it from its lower endpoint
+                if (v < neighbors[e]) {
+                    tree.addEdge(new EdgeData(weights[e]), nodes.get(v), nodes.get(neighbors[e]));
+                }
+            }
+        }
+        return tree;
+    }
+
+    public int numNodes() {
+        return (offsetColumn != null) ? offsetColumn.limit() - 1 : offsets.length - 1;
+    }
+
+    public int numEdges() {
+        return (neighborColumn != null) ? neighborColumn.limit() / 2 : neighbors.length / 2;
+    }
+
+    public int degree(int v) {
+        return offset(v + 1) - offset(v);
+    }
+
+    // Single entries, read from the mapping when there is one
+
+    public int offset(int v) {
+        return (offsetColumn != null) ? offsetColumn.get(v) : offsets[v];
+    }
+
+    public int neighbor(int e) {
+        return (neighborColumn != null) ? neighborColumn.get(e) : neighbors[e];
+    }
+
+    public double weight(int e) {
+        return (weightColumn != null) ? weightColumn.get(e) : weights[e];
+    }
+
+    /*
+        Read-only views of the columns: the mapping itself for a mapped tree,
+        the arrays wrapped for one built in memory. Read them with absolute
+        get(index), which leaves the view's position alone and so is safe
+        from several threads at once.
+     */
+
+    public IntBuffer getOffsetColumn() {
+        return (offsetColumn != null) ? offsetColumn.asReadOnlyBuffer() : IntBuffer.wrap(offsets).asReadOnlyBuffer();
+    }
+
+    public IntBuffer getNeighborColumn() {
+        return (neighborColumn != null) ? neighborColumn.asReadOnlyBuffer() : IntBuffer.wrap(neighbors).asReadOnlyBuffer();
+    }
+
+    public DoubleBuffer getWeightColumn() {
+        return (weightColumn != null) ? weightColumn.asReadOnlyBuffer() : DoubleBuffer.wrap(weights).asReadOnlyBuffer();
+    }
+
+    public NodeData getNodeData(int v) {
+        return (nodeData != null) ? nodeData[v] : null;
+    }
+
+    /*
+        The raw arrays are shared, not copied; callers must not modify them.
+        A mapped tree copies each column on first use. Copies made twice in
+        a race are equal, so either one can win.
+     */
+
+    public int[] getOffsets() {
+        int[] result = offsets;
+        if (result == null) {
+            result = new int[offsetColumn.limit()];
+            offsetColumn.duplicate().get(result);
+            offsets = result;
+        }
+        return result;
+    }
+
+    public int[] getNeighbors() {
+        int[] result = neighbors;
+        if (result == null) {
+            result = new int[neighborColumn.limit()];
+            neighborColumn.duplicate().get(result);
+            neighbors = result;
+        }
+        return result;
+    }
+
+    public double[] getWeights() {
+        double[] result = weights;
+        if (result == null) {
+            result = new double[weightColumn.limit()];
+            weightColumn.duplicate().get(result);
+            weights = result;
+        }
+        return result;
+    }
+
+    // True if no component contains a cycle. Iterative and O(n).
+    public boolean isAcyclic() {
+        int n = numNodes();
+        // A forest on n nodes has at most n - 1 edges
+        if (numEdges() > Math.max(0, n - 1)) {
+            return false;
+        }
+
+        IntBuffer offsets = getOffsetColumn();
+        IntBuffer neighbors = getNeighborColumn();
+        BitSet visited = new BitSet(n);
+        int[] stack = new int[n];
+        int[] parent = new int[n];
+
+        for (int start = 0; start < n; start++) {
+            if (visited.get(start)) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = start;
+            parent[start] = -1;
+            visited.set(start);
+
+            while (top > 0) {
+                int v = stack[--top];
+                boolean skippedParent = false;
+                for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                    int neighbor = neighbors.get(e);
+                    // Skip the tree edge to the parent once; a second copy is a cycle
+                    if (neighbor == parent[v] && !skippedParent) {
+                        skippedParent = true;
+                        continue;
+                    }
+                    if (visited.get(neighbor)) {
+                        return false;
+                    }
+                    visited.set(neighbor);
+                    parent[neighbor] = v;
+                    stack[top++] = neighbor;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.*;
+
+/*
+    Result of a centroid decomposition. Everything is stored in flat int
+    arrays indexed by node id (Tree.Node.getId()), so it can be built and
+    queried without Swing or per-node objects.
+ */
+public class Decomposition {
+
+    // Centroid parent of the root centroid
+    public static final int NO_PARENT = -1;
+
+    // Marker for nodes that never became a centroid (small components left undecomposed)
+    public static final int NOT_A_CENTROID = -2;
+
+    // Centroid parent of every node, NO_PARENT or NOT_A_CENTROID
+    private final int[] parent;
+
+    // Depth of every node in the centroid tree, -1 if it is not a centroid
+    private final int[] depth;
+
+    // Centroids in the order they were chosen (preorder of the centroid tree)
+    private final int[] order;
+
+    private final int numCentroids;
+
+    // Top centroid of every decomposed component, in order; one entry unless this is a centroid forest
+    private final int[] roots;
+
+
+    public Decomposition(int[] parent, int[] depth, int[] order, int numCentroids) {
+        this.parent = parent;
+        this.depth = depth;
+        this.order = order;
+        this.numCentroids = numCentroids;
+
+        int numRoots = 0;
+        for (int i = 0; i < numCentroids; i++) {
+            if (parent[order[i]] == NO_PARENT) {
+                numRoots++;
+            }
+        }
+        roots = new int[numRoots];
+        numRoots = 0;
+        for (int i = 0; i < numCentroids; i++) {
+            if (parent[order[i]] == NO_PARENT) {
+                roots[numRoots++] = order[i];
+            }
+        }
+    }
+
+    public int numNodes() {
+        return parent.length;
+    }
+
+    public int numCentroids() {
+        return numCentroids;
+    }
+
+    // Id of the first top centroid, or -1 if nothing was decomposed
+    public int getRoot() {
+        return (numCentroids == 0) ? -1 : order[0];
+    }
+
+    // Number of trees in the centroid forest, one per decomposed component
+    public int numRoots() {
+        return roots.length;
+    }
+
+    // Top centroid of the i-th decomposed component
+    public int getRoot(int i) {
+        return roots[i];
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getDepth(int node) {
+        return depth[node];
+    }
+
+    public boolean isCentroid(int node) {
+        return parent[node] != NOT_A_CENTROID;
+    }
+
+    // Id of the i-th chosen centroid
+    public int getCentroid(int i) {
+        return order[i];
+    }
+
+    // Height of the centroid tree, counted in levels
+    public int getHeight() {
+        int height = 0;
+        for (int i = 0; i < numCentroids; i++) {
+            height = Math.max(height, depth[order[i]] + 1);
+        }
+        return height;
+    }
+
+    /*
+        Builds the centroid tree as a Tree, sharing the NodeData of the source tree.
+        Nodes are added in the order the centroids were chosen and every
+        centroid is joined to its parent centroid with an edge of length 1.
+     */
+    public Tree<NodeData,EdgeData> toTree(Tree<NodeData,EdgeData> source) {
+        Tree<NodeData,EdgeData> centroidTree = new Tree<NodeData,EdgeData>();
+        ArrayList<Tree<NodeData,EdgeData>.Node> sourceNodes = source.getNodes();
+
+        // Position of each centroid in the new tree
+        int[] rank = new int[parent.length];
+
+        for (int i = 0; i < numCentroids; i++) {
+            int centroid = order[i];
+            rank[centroid] = i;
+            Tree<NodeData,EdgeData>.Node centroidNode = centroidTree.addNode(sourceNodes.get(centroid).getData());
+            if (parent[centroid] >= 0) {
+                centroidTree.addEdge(new EdgeData(1.0),
+                        centroidTree.getNodes().get(rank[parent[centroid]]),
+                        centroidNode);
+            }
+        }
+        return centroidTree;
+    }
+}
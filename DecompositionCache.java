@@ -0,0 +1,143 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Bounded LRU cache of results computed from a tree: decompositions and
+    the query tables built on them or on the tree alone. Entries are keyed by the tree's
+    TreeFingerprint key and by the Builder that made them, so asking again
+    for the same kind of result on an unchanged tree is a map lookup.
+
+    Cached results are shared, so only results that are not changed after
+    they are built belong here. The cache itself is synchronized and can be
+    used from worker threads; builds run outside the lock.
+ */
+public class DecompositionCache {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // Makes one kind of result; the builder object itself identifies the kind
+    public interface Builder<T> {
+        T build(CompactTree tree);
+    }
+
+    // Decomposition of every component as CentroidDecomposer makes it by default
+    public static final Builder<Decomposition> DECOMPOSITION = new Builder<Decomposition>() {
+        public Decomposition build(CompactTree tree) {
+            return new CentroidDecomposer().decomposeForest(tree);
+        }
+    };
+
+    // Every component down to single nodes, as the query structures need
+    public static final Builder<Decomposition> FULL_DECOMPOSITION = new Builder<Decomposition>() {
+        public Decomposition build(CompactTree tree) {
+            return new CentroidDecomposer(0).decomposeForest(tree);
+        }
+    };
+
+    // Same as FULL_DECOMPOSITION, decomposed in parallel on the common pool
+    public static final Builder<Decomposition> FOREST_DECOMPOSITION = new Builder<Decomposition>() {
+        public Decomposition build(CompactTree tree) {
+            return new ParallelCentroidDecomposer(ForkJoinPool.commonPool(),
+                    ParallelCentroidDecomposer.DEFAULT_THRESHOLD, 0).decomposeForest(tree);
+        }
+    };
+
+    public static final Builder<CentroidDistanceTable> DISTANCE_TABLE = new Builder<CentroidDistanceTable>() {
+        public CentroidDistanceTable build(CompactTree tree) {
+            return new CentroidDistanceTable(tree, new CentroidDecomposer(0).decomposeForest(tree));
+        }
+    };
+
+    public static final Builder<LcaIndex> LCA_INDEX = new Builder<LcaIndex>() {
+        public LcaIndex build(CompactTree tree) {
+            return new LcaIndex(tree);
+        }
+    };
+
+    private static final class Entry {
+        final TreeFingerprint.Key key;
+        final Builder<?> builder;
+
+        Entry(TreeFingerprint.Key key, Builder<?> builder) {
+            this.key = key;
+            this.builder = builder;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && ((Entry) other).key.equals(key) && ((Entry) other).builder == builder;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + System.identityHashCode(builder);
+        }
+    }
+
+    private final LinkedHashMap<Entry, Object> results;
+
+    private long hits;
+    private long misses;
+
+
+    public DecompositionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DecompositionCache(final int capacity) {
+        // Access order, so the eldest entry is the least recently used one
+        // Inside the map subclass a bare Entry can resolve to Map.Entry (it does on Java 8), so qualify it
+        results = new LinkedHashMap<Entry, Object>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<DecompositionCache.Entry, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Cached result for the key, or null
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(TreeFingerprint.Key key, Builder<T> builder) {
+        T result = (T) results.get(new Entry(key, builder));
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+    public synchronized <T> void put(TreeFingerprint.Key key, Builder<T> builder, T result) {
+        results.put(new Entry(key, builder), result);
+    }
+
+    // Cached result, or a new one built from tree and remembered. tree must have the given key
+    public <T> T get(TreeFingerprint.Key key, Builder<T> builder, CompactTree tree) {
+        T result = get(key, builder);
+        if (result == null) {
+            result = builder.build(tree);
+            put(key, builder, result);
+        }
+        return result;
+    }
+
+    // Cached result for the snapshot's tree, or a new one
+    public <T> T get(TreeSnapshot snapshot, Builder<T> builder) {
+        return get(snapshot.getKey(), builder, snapshot.getTree());
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,234 @@
+import java.awt.event.*;
+import java.util.*;
+import javax.swing.Timer;
+
+/*
+    Replays a DecompositionTimeline on the canvas. A javax.swing.Timer ticks
+    on the event dispatch thread, so nothing ever sleeps there. Each tick
+    applies every event that has come due since the last one and repaints
+    once, so high speeds skip frames instead of falling behind.
+
+    Colours follow from the position alone: a node is coloured as a centroid
+    once its event is before the position, and an edge once either end is.
+    That makes stepping back as cheap as stepping forward, and scrubbing
+    only touches the events in between.
+
+    Node ids have to match the tree the timeline was made for, so any
+    structural change to the tree stops the player and drops the timeline.
+ */
+public class DecompositionPlayer implements ActionListener, Tree.Listener<NodeData,EdgeData> {
+
+    // Time between frames, in milliseconds
+    public static final int FRAME_MS = 40;
+
+    // Past this many events in one frame the whole canvas is repainted at once
+    private static final int MAX_PARTIAL_REPAINT = 256;
+
+    // Told about every change of position or playing state, on the event dispatch thread
+    public interface Listener {
+        void positionChanged(int position, int length, boolean playing);
+    }
+
+    private final Canvas canvas;
+
+    private final Timer timer = new Timer(FRAME_MS, this);
+
+    private final ArrayList<Listener> listeners = new ArrayList<Listener>();
+
+    private DecompositionTimeline timeline;
+
+    // Number of events applied
+    private int position;
+
+    private double eventsPerSecond = 1;
+
+    // Fraction of an event carried over to the next frame
+    private double due;
+
+    private long lastTick;
+
+    // Tree the listener is attached to, kept until the next load or clear
+    private Tree<NodeData,EdgeData> attachedTree;
+
+
+    public DecompositionPlayer(Canvas canvas) {
+        this.canvas = canvas;
+        timer.setCoalesce(true);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Shows the start of timeline, paused
+    public void load(DecompositionTimeline timeline) {
+        clear();
+        this.timeline = timeline;
+        attachedTree = canvas.tree;
+        attachedTree.addListener(this);
+        position = 0;
+        fireChanged();
+    }
+
+    // Stops and forgets the timeline, leaving the colours as they are
+    public void clear() {
+        timer.stop();
+        if (attachedTree != null) {
+            attachedTree.removeListener(this);
+            attachedTree = null;
+        }
+        timeline = null;
+        position = 0;
+        fireChanged();
+    }
+
+    public boolean isLoaded() {
+        return timeline != null;
+    }
+
+    public boolean isPlaying() {
+        return timer.isRunning();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLength() {
+        return (timeline == null) ? 0 : timeline.length();
+    }
+
+    // Centroid chosen by the last applied event, or -1
+    public int getLastCentroid() {
+        return (timeline == null || position == 0) ? -1 : timeline.getCentroid(position - 1);
+    }
+
+    public void setSpeed(double eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    public double getSpeed() {
+        return eventsPerSecond;
+    }
+
+    public void play() {
+        if (timeline == null || timer.isRunning()) {
+            return;
+        }
+        if (position == timeline.length()) {
+            seek(0);
+        }
+        // The first event shows right away
+        due = 1;
+        lastTick = System.nanoTime();
+        timer.start();
+        fireChanged();
+    }
+
+    public void pause() {
+        if (timer.isRunning()) {
+            timer.stop();
+            fireChanged();
+        }
+    }
+
+    // Pauses and applies the next event
+    public void step() {
+        pause();
+        seek(position + 1);
+    }
+
+    // Moves to the given number of applied events, recolouring only what changes
+    public void seek(int target) {
+        if (timeline == null) {
+            return;
+        }
+        target = Math.max(0, Math.min(timeline.length(), target));
+        if (target == position) {
+            return;
+        }
+        int from = Math.min(position, target), to = Math.max(position, target);
+        position = target;
+        boolean partial = to - from <= MAX_PARTIAL_REPAINT;
+        ArrayList<Tree<NodeData,EdgeData>.Node> nodes = canvas.tree.getNodes();
+        for (int i = from; i < to; i++) {
+            Tree<NodeData,EdgeData>.Node node = nodes.get(timeline.getCentroid(i));
+            recolor(node);
+            if (partial) {
+                canvas.repaintAround(node);
+            }
+        }
+        if (!partial) {
+            canvas.repaint();
+        }
+        fireChanged();
+    }
+
+    private void recolor(Tree<NodeData,EdgeData>.Node node) {
+        boolean chosen = isChosen(node);
+        node.getData().setColor(chosen ? Palette.CENTROID : Palette.NODE);
+        for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+            boolean cut = chosen || isChosen(edge.getOtherNode(node));
+            edge.getData().setColor(cut ? Palette.CENTROID_EDGE : Palette.EDGE);
+        }
+    }
+
+    private boolean isChosen(Tree<NodeData,EdgeData>.Node node) {
+        return timeline.getEvent(node.getId()) < position;
+    }
+
+    // Timer tick: applies the events due by now in one go
+    public void actionPerformed(ActionEvent e) {
+        long now = System.nanoTime();
+        due += (now - lastTick) / 1e9 * eventsPerSecond;
+        lastTick = now;
+        int count = (int) Math.min(due, Integer.MAX_VALUE);
+        due -= count;
+        if (count > 0) {
+            seek((int) Math.min((long) position + count, timeline.length()));
+        }
+        if (position == timeline.length()) {
+            pause();
+        }
+    }
+
+    private void fireChanged() {
+        for (Listener listener : listeners) {
+            listener.positionChanged(position, getLength(), isPlaying());
+        }
+    }
+
+    // Node ids no longer match the timeline. The tree is iterating its listeners, so stay attached for now
+    private void treeChanged() {
+        if (timeline != null) {
+            timer.stop();
+            timeline = null;
+            position = 0;
+            fireChanged();
+        }
+    }
+
+    public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+        treeChanged();
+    }
+
+    public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+        treeChanged();
+    }
+
+    public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+        treeChanged();
+    }
+
+    public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+        // Distances don't change which nodes are centroids
+    }
+
+    public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+        treeChanged();
+    }
+
+    public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+        treeChanged();
+    }
+}
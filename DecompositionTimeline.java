@@ -0,0 +1,58 @@
+import java.util.*;
+
+/*
+    The steps of a centroid decomposition in the order they happened, ready
+    to be replayed. Event i chooses getCentroid(i) as the centroid of its
+    component. Everything is computed up front, so a player can jump to any
+    event and decide the colour of a node or edge with a single comparison:
+    a node is a centroid at position p iff getEvent(node) < p.
+ */
+public class DecompositionTimeline {
+
+    // Event of nodes that are never chosen
+    public static final int NEVER = Integer.MAX_VALUE;
+
+    private final int[] centroids;
+
+    private final int[] depths;
+
+    // Event at which every node becomes a centroid, or NEVER
+    private final int[] event;
+
+
+    public DecompositionTimeline(Decomposition decomposition) {
+        int length = decomposition.numCentroids();
+        centroids = new int[length];
+        depths = new int[length];
+        event = new int[decomposition.numNodes()];
+        Arrays.fill(event, NEVER);
+        for (int i = 0; i < length; i++) {
+            int centroid = decomposition.getCentroid(i);
+            centroids[i] = centroid;
+            depths[i] = decomposition.getDepth(centroid);
+            event[centroid] = i;
+        }
+    }
+
+    // Number of events
+    public int length() {
+        return centroids.length;
+    }
+
+    public int numNodes() {
+        return event.length;
+    }
+
+    public int getCentroid(int i) {
+        return centroids[i];
+    }
+
+    // Depth of the centroid chosen at event i
+    public int getDepth(int i) {
+        return depths[i];
+    }
+
+    public int getEvent(int node) {
+        return event[node];
+    }
+}
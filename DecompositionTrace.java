@@ -0,0 +1,40 @@
+/*
+    Receives the steps of a centroid decomposition, for debugging and
+    visualization. The decomposers check the level once per run, so the
+    default NONE sink costs a boolean test per step and allocates nothing.
+    Sinks used with ParallelCentroidDecomposer are called from several
+    threads at once.
+ */
+public interface DecompositionTrace {
+
+    // OFF reports nothing, STEPS reports centroids and splits, DETAIL adds every subtree size pass
+    enum Level {
+        OFF, STEPS, DETAIL
+    }
+
+    DecompositionTrace NONE = new DecompositionTrace() {
+        public Level getLevel() {
+            return Level.OFF;
+        }
+
+        public void subtreeSizes(int root, int componentSize) {
+        }
+
+        public void centroidChosen(int centroid, int parentCentroid, int componentSize) {
+        }
+
+        public void componentsSplit(int centroid, int numComponents) {
+        }
+    };
+
+    Level getLevel();
+
+    // A subtree size pass over the component rooted at root (DETAIL)
+    void subtreeSizes(int root, int componentSize);
+
+    // centroid was chosen for a component of componentSize nodes, below parentCentroid (STEPS)
+    void centroidChosen(int centroid, int parentCentroid, int componentSize);
+
+    // Removing centroid left numComponents components to decompose (STEPS)
+    void componentsSplit(int centroid, int numComponents);
+}
@@ -0,0 +1,316 @@
+import java.nio.*;
+import java.util.*;
+
+/*
+    Checks in O(n) that a Decomposition is a valid centroid decomposition of
+    a tree or forest, and collects depth and balance statistics about it.
+
+    The component of a centroid c is every node below c in the centroid
+    tree, plus the small components left undecomposed below them. The
+    decomposition is valid when
+      - every centroid's parent is a centroid one level up,
+      - the two ends of every tree edge lie on one root path of the
+        centroid tree, so removing a centroid separates its children,
+      - every component is connected: it holds exactly size - 1 tree edges,
+      - no piece left after removing a centroid is more than half its
+        component, which is what bounds the depth by log2 n.
+    Ancestor tests use preorder intervals, so the whole check is a few
+    linear passes over flat arrays.
+
+    A leftover small component belongs to the deepest centroid next to it.
+    Leftover components with no centroid next to them were never decomposed,
+    e.g. the components decompose() skips; they are counted as uncovered.
+ */
+public class DecompositionVerifier {
+
+    private final int n;
+
+    // Why the decomposition is invalid, or null
+    private String problem;
+
+    private int maxDepth = -1;
+
+    // Centroids per level
+    private int[] depthHistogram = new int[0];
+
+    // Largest piece left by a centroid over the size of its component, per level
+    private double[] maxSplitRatio = new double[0];
+    private double[] meanSplitRatio = new double[0];
+
+    // Nodes visited by the size passes of the engines, one pass per component
+    private long work;
+
+    private int largestComponent;
+    private int leftoverNodes;
+    private int largestLeftover;
+    private int uncoveredNodes;
+
+
+    public DecompositionVerifier(CompactTree tree, Decomposition decomposition) {
+        n = tree.numNodes();
+        problem = verify(tree, decomposition);
+    }
+
+    private String verify(CompactTree tree, Decomposition decomposition) {
+        IntBuffer offsets = tree.getOffsetColumn();
+        IntBuffer neighbors = tree.getNeighborColumn();
+        if (decomposition.numNodes() != n) {
+            return "decomposition has " + decomposition.numNodes() + " nodes, tree has " + n;
+        }
+
+        // Parent links, which also rules out cycles as depth grows along them
+        int[] childStart = new int[n + 2];
+        for (int v = 0; v < n; v++) {
+            int p = decomposition.getParent(v);
+            int d = decomposition.getDepth(v);
+            if (p == Decomposition.NOT_A_CENTROID) {
+                if (d != -1) {
+                    return "node " + v + " is not a centroid but has depth " + d;
+                }
+            } else if (p == Decomposition.NO_PARENT) {
+                if (d != 0) {
+                    return "root centroid " + v + " has depth " + d;
+                }
+            } else if (p < 0 || p >= n || !decomposition.isCentroid(p) || decomposition.getDepth(p) != d - 1) {
+                return "centroid " + v + " at depth " + d + " has bad parent " + p;
+            } else {
+                childStart[p + 2]++;
+            }
+        }
+
+        // Children grouped by parent, then preorder intervals: u is above v iff tin[u] <= tin[v] <= end[u]
+        for (int v = 0; v < n; v++) {
+            childStart[v + 2] += childStart[v + 1];
+        }
+        int[] children = new int[n];
+        for (int v = 0; v < n; v++) {
+            int p = decomposition.getParent(v);
+            if (p >= 0) {
+                children[childStart[p + 1]++] = v;
+            }
+        }
+        int[] preorder = new int[n];
+        int[] tin = new int[n];
+        int[] end = new int[n];
+        int[] stack = new int[n];
+        int numCentroids = 0;
+        for (int r = 0; r < n; r++) {
+            if (decomposition.getParent(r) != Decomposition.NO_PARENT) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = r;
+            while (top > 0) {
+                int v = stack[--top];
+                tin[v] = numCentroids;
+                preorder[numCentroids++] = v;
+                for (int i = childStart[v]; i < childStart[v + 1]; i++) {
+                    stack[top++] = children[i];
+                }
+            }
+        }
+        for (int i = numCentroids - 1; i >= 0; i--) {
+            int v = preorder[i];
+            end[v] = tin[v];
+            for (int j = childStart[v]; j < childStart[v + 1]; j++) {
+                end[v] = Math.max(end[v], end[children[j]]);
+            }
+        }
+
+        // Component sizes, tree edges inside each component and the largest piece of each
+        int[] size = new int[n];
+        int[] inside = new int[n];
+        int[] largestPiece = new int[n];
+        for (int i = 0; i < numCentroids; i++) {
+            size[preorder[i]] = 1;
+        }
+
+        // Leftover components: find each one, hang it below the deepest centroid next to it
+        int[] leftover = children;
+        Arrays.fill(leftover, -1);
+        for (int s = 0; s < n; s++) {
+            if (decomposition.isCentroid(s) || leftover[s] >= 0) {
+                continue;
+            }
+            int members = 0;
+            int owner = -1;
+            stack[members++] = s;
+            leftover[s] = s;
+            for (int i = 0; i < members; i++) {
+                int v = stack[i];
+                for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                    int u = neighbors.get(e);
+                    if (decomposition.isCentroid(u)) {
+                        if (owner < 0 || decomposition.getDepth(u) > decomposition.getDepth(owner)) {
+                            owner = u;
+                        }
+                    } else if (leftover[u] < 0) {
+                        leftover[u] = s;
+                        stack[members++] = u;
+                    }
+                }
+            }
+            leftoverNodes += members;
+            largestLeftover = Math.max(largestLeftover, members);
+            work += members;
+            if (owner < 0) {
+                uncoveredNodes += members;
+                continue;
+            }
+            for (int i = 0; i < members; i++) {
+                int v = stack[i];
+                for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                    int u = neighbors.get(e);
+                    if (decomposition.isCentroid(u) && !(tin[u] <= tin[owner] && tin[owner] <= end[u])) {
+                        return "small component of node " + s + " touches centroids " + u + " and " + owner
+                                + " on different branches";
+                    }
+                }
+            }
+            size[owner] += members;
+            // Its own members - 1 edges count for the owner, edges to centroids for the centroid
+            inside[owner] += members - 1;
+            largestPiece[owner] = Math.max(largestPiece[owner], members);
+        }
+
+        // Edges between centroids count for the upper end, which has to be above the lower one
+        for (int v = 0; v < n; v++) {
+            if (!decomposition.isCentroid(v)) {
+                continue;
+            }
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                int u = neighbors.get(e);
+                if (!decomposition.isCentroid(u)) {
+                    // v was checked above to be over the owner of u
+                    inside[v]++;
+                    continue;
+                }
+                if (decomposition.getDepth(u) < decomposition.getDepth(v)) {
+                    continue;
+                }
+                if (decomposition.getDepth(u) == decomposition.getDepth(v) || !(tin[v] <= tin[u] && tin[u] <= end[v])) {
+                    return "edge " + v + "-" + u + " joins different branches of the centroid tree";
+                }
+                inside[v]++;
+            }
+        }
+
+        // Sizes and edge counts of whole components, bottom up
+        for (int i = numCentroids - 1; i >= 0; i--) {
+            int v = preorder[i];
+            int p = decomposition.getParent(v);
+            if (p >= 0) {
+                size[p] += size[v];
+                inside[p] += inside[v];
+            }
+        }
+        for (int i = numCentroids - 1; i >= 0; i--) {
+            int v = preorder[i];
+            int p = decomposition.getParent(v);
+            if (p >= 0) {
+                largestPiece[p] = Math.max(largestPiece[p], size[v]);
+            }
+        }
+
+        for (int i = 0; i < numCentroids; i++) {
+            maxDepth = Math.max(maxDepth, decomposition.getDepth(preorder[i]));
+        }
+        depthHistogram = new int[maxDepth + 1];
+        maxSplitRatio = new double[maxDepth + 1];
+        meanSplitRatio = new double[maxDepth + 1];
+        for (int i = 0; i < numCentroids; i++) {
+            int v = preorder[i];
+            if (inside[v] != size[v] - 1) {
+                return "component of centroid " + v + " has " + size[v] + " nodes but "
+                        + inside[v] + " edges, so it is not connected";
+            }
+            if (largestPiece[v] > size[v] / 2) {
+                return "centroid " + v + " leaves a piece of " + largestPiece[v] + " of " + size[v] + " nodes";
+            }
+            int d = decomposition.getDepth(v);
+            double ratio = (double) largestPiece[v] / size[v];
+            depthHistogram[d]++;
+            maxSplitRatio[d] = Math.max(maxSplitRatio[d], ratio);
+            meanSplitRatio[d] += ratio;
+            work += size[v];
+            largestComponent = Math.max(largestComponent, (d == 0) ? size[v] : 0);
+        }
+        for (int d = 0; d <= maxDepth; d++) {
+            meanSplitRatio[d] /= depthHistogram[d];
+        }
+        return null;
+    }
+
+    public boolean isValid() {
+        return problem == null;
+    }
+
+    // The first violation found, or null; the statistics are only meaningful when there is none
+    public String getProblem() {
+        return problem;
+    }
+
+    // Depth of the deepest centroid, -1 if there are none
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // Depth the halving rule allows for the largest decomposed component: floor(log2 size)
+    public int getDepthBound() {
+        return (largestComponent == 0) ? -1 : 31 - Integer.numberOfLeadingZeros(largestComponent);
+    }
+
+    public int getCentroidsAtDepth(int depth) {
+        return depthHistogram[depth];
+    }
+
+    public double getMaxSplitRatio(int depth) {
+        return maxSplitRatio[depth];
+    }
+
+    public double getMeanSplitRatio(int depth) {
+        return meanSplitRatio[depth];
+    }
+
+    /*
+        Nodes visited by all calculateSubtreeSizes passes of the engines:
+        one pass over every decomposed component and every small component,
+        including small trees of a forest that got no centroid. Components
+        that decompose() skips without a pass are counted as well.
+     */
+    public long getWork() {
+        return work;
+    }
+
+    // Nodes in components left undecomposed for being small
+    public int getLeftoverNodes() {
+        return leftoverNodes;
+    }
+
+    public int getLargestLeftover() {
+        return largestLeftover;
+    }
+
+    // Nodes of components that have no centroid at all
+    public int getUncoveredNodes() {
+        return uncoveredNodes;
+    }
+
+    // Statistics as printable lines
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        if (!isValid()) {
+            return text.append("invalid: ").append(problem).append('\n').toString();
+        }
+        text.append(String.format("valid, %d nodes, max depth %d (bound %d), work %d (%.2f per node)%n",
+                n, maxDepth, getDepthBound(), work, (n == 0) ? 0.0 : (double) work / n));
+        text.append(String.format("leftover nodes %d (largest component %d), uncovered %d%n",
+                leftoverNodes, largestLeftover, uncoveredNodes));
+        text.append("depth  centroids  max split  mean split\n");
+        for (int d = 0; d <= maxDepth; d++) {
+            text.append(String.format("%5d  %9d  %9.3f  %10.3f%n",
+                    d, depthHistogram[d], maxSplitRatio[d], meanSplitRatio[d]));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,136 @@
+import java.awt.*;
+import java.util.*;
+
+/*
+    Brute-force check of the distance structures on random forests.
+
+        java DistanceCheck [rounds] [seed]
+
+    Each round builds a random forest of up to a hundred nodes with whole
+    number edge distances, so every structure must agree exactly with a
+    breadth-first search from each node, and pairs in different components
+    must come out infinitely far apart. Checked are CentroidDistanceTable,
+    LcaIndex and HeavyLightDecomposition distances, NearestMarkedService
+    under random marks and unmarks, and PairDistanceCounter counts. Exits
+    with status 1 on the first mismatch.
+ */
+public class DistanceCheck {
+
+    private static final int MAX_NODES = 100;
+
+    public static void main(String[] args) {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        for (int round = 0; round < rounds; round++) {
+            Tree<NodeData,EdgeData> tree = forest(random);
+            String problem = check(tree, random);
+            if (problem != null) {
+                System.out.println("round " + round + " (seed " + seed + ", " + tree.numNodes() + " nodes, "
+                        + tree.numEdges() + " edges): " + problem);
+                System.exit(1);
+            }
+        }
+        System.out.println("ok: " + rounds + " forests");
+    }
+
+    // Random parents, with about one node in six starting a new component
+    private static Tree<NodeData,EdgeData> forest(Random random) {
+        Tree<NodeData,EdgeData> tree = new Tree<NodeData,EdgeData>();
+        int n = 1 + random.nextInt(MAX_NODES);
+        for (int v = 0; v < n; v++) {
+            Tree<NodeData,EdgeData>.Node node = tree.addNode(new NodeData(new Point(), ""));
+            if (v > 0 && random.nextInt(6) > 0) {
+                tree.addEdge(new EdgeData((double) (1 + random.nextInt(20))), tree.getNode(random.nextInt(v)), node);
+            }
+        }
+        return tree;
+    }
+
+    // Why some structure disagrees with the searches, or null
+    private static String check(Tree<NodeData,EdgeData> tree, Random random) {
+        int n = tree.numNodes();
+        double[][] distance = new double[n][];
+        for (int v = 0; v < n; v++) {
+            distance[v] = search(tree, v);
+        }
+
+        CentroidDistanceTable table = new CentroidDistanceTable(tree);
+        LcaIndex lca = new LcaIndex(tree);
+        HeavyLightDecomposition paths = new HeavyLightDecomposition(tree);
+        paths.detach();
+        for (int u = 0; u < n; u++) {
+            for (int v = 0; v < n; v++) {
+                if (table.distance(u, v) != distance[u][v]) {
+                    return "CentroidDistanceTable " + u + "-" + v + " is " + table.distance(u, v)
+                            + ", expected " + distance[u][v];
+                }
+                if (lca.distance(u, v) != distance[u][v]) {
+                    return "LcaIndex " + u + "-" + v + " is " + lca.distance(u, v) + ", expected " + distance[u][v];
+                }
+                if (paths.pathSum(u, v) != distance[u][v]) {
+                    return "HeavyLightDecomposition " + u + "-" + v + " is " + paths.pathSum(u, v)
+                            + ", expected " + distance[u][v];
+                }
+            }
+        }
+
+        NearestMarkedService service = new NearestMarkedService(tree);
+        boolean[] marked = new boolean[n];
+        for (int step = 0; step < 3 * n; step++) {
+            int v = random.nextInt(n);
+            if (marked[v]) {
+                service.unmark(v);
+            } else {
+                service.mark(v);
+            }
+            marked[v] = !marked[v];
+            int query = random.nextInt(n);
+            double expected = Double.POSITIVE_INFINITY;
+            for (int w = 0; w < n; w++) {
+                if (marked[w]) {
+                    expected = Math.min(expected, distance[query][w]);
+                }
+            }
+            if (service.nearest(query) != expected) {
+                return "NearestMarkedService from " + query + " is " + service.nearest(query) + ", expected " + expected;
+            }
+        }
+
+        PairDistanceCounter counter = new PairDistanceCounter(tree);
+        double k = random.nextInt(60);
+        long expected = 0;
+        for (int u = 0; u < n; u++) {
+            for (int v = u + 1; v < n; v++) {
+                if (distance[u][v] <= k) {
+                    expected++;
+                }
+            }
+        }
+        if (counter.countWithin(k) != expected) {
+            return "PairDistanceCounter within " + k + " is " + counter.countWithin(k) + ", expected " + expected;
+        }
+        return null;
+    }
+
+    // Distances from start to every node, infinity for other components
+    private static double[] search(Tree<NodeData,EdgeData> tree, int start) {
+        double[] distance = new double[tree.numNodes()];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        distance[start] = 0.0;
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(queue.poll());
+            for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+                int other = edge.getOtherNode(node).getId();
+                if (distance[other] == Double.POSITIVE_INFINITY) {
+                    distance[other] = distance[node.getId()] + edge.getData().getDistance();
+                    queue.add(other);
+                }
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,214 @@
+import java.awt.*;
+import java.util.*;
+
+/*
+    Brute-force check of DynamicCentroidTree under random edits.
+
+        java DynamicCentroidCheck [rounds] [seed]
+
+    Each round builds a small random forest in either Tree mode, follows it
+    with a DynamicCentroidTree, and applies random edits: new nodes and
+    leaves, node and edge removals (some repeated on the stale handle, which
+    must change nothing), and edges joining two components. Every reported
+    edge removal must find the edge gone and the edge list renumbered. After
+    edits the maintained forest is compared with the live tree by plain
+    searches: every centroid's subtree must be a connected component of the
+    tree, its children's subtrees exactly the components left after removing
+    it, its size the number of nodes below it, and the roots one per
+    component of the tree. Exits with status 1 on the first mismatch.
+ */
+public class DynamicCentroidCheck {
+
+    private static final int EDITS = 300;
+
+    public static void main(String[] args) {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        int maxDepth = 0;
+        for (int round = 0; round < rounds; round++) {
+            boolean indexed = (round % 2 == 1);
+            Tree<NodeData,EdgeData> tree = new Tree<NodeData,EdgeData>(indexed);
+            int initial = random.nextInt(20);
+            for (int i = 0; i < initial; i++) {
+                Tree<NodeData,EdgeData>.Node node = tree.addNode(new NodeData(new Point(), ""));
+                if (i > 0) {
+                    tree.addEdge(new EdgeData(1.0), tree.getNode(random.nextInt(i)), node);
+                }
+            }
+            DynamicCentroidTree dynamic = new DynamicCentroidTree(tree);
+            final Tree<NodeData,EdgeData> edited = tree;
+            tree.addListener(new Tree.Listener<NodeData,EdgeData>() {
+                public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+                }
+
+                public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+                }
+
+                public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+                    for (int i = 0; i < edited.numEdges(); i++) {
+                        if (edited.getEdge(i) == edge || edited.getEdge(i).getId() != i) {
+                            System.out.println("edge list inconsistent when an edge removal is reported");
+                            System.exit(1);
+                        }
+                    }
+                }
+
+                public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+                }
+
+                public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+                }
+
+                public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+                }
+            });
+
+            for (int edit = 0; edit <= EDITS; edit++) {
+                if (edit > 0) {
+                    edit(tree, random);
+                }
+                String problem = check(tree, dynamic);
+                if (problem != null) {
+                    System.out.println("round " + round + " (seed " + seed + ", indexed " + indexed
+                            + "), edit " + edit + ": " + problem);
+                    System.exit(1);
+                }
+                maxDepth = Math.max(maxDepth, dynamic.toDecomposition().getHeight());
+            }
+            dynamic.detach();
+        }
+        System.out.println("ok: " + rounds + " rounds of " + EDITS + " edits, deepest centroid tree " + maxDepth);
+    }
+
+    private static void edit(Tree<NodeData,EdgeData> tree, Random random) {
+        int n = tree.numNodes();
+        int kind = random.nextInt(10);
+        if (kind < 6 || n < 2) {
+            Tree<NodeData,EdgeData>.Node node = tree.addNode(new NodeData(new Point(), ""));
+            if (n > 0 && random.nextInt(8) > 0) {
+                tree.addEdge(new EdgeData(1.0), tree.getNode(random.nextInt(n)), node);
+            }
+        } else if (kind < 8) {
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(random.nextInt(n));
+            tree.removeNode(node);
+            if (random.nextBoolean()) {
+                tree.removeNode(node);
+            }
+        } else if (kind < 9) {
+            if (tree.numEdges() > 0) {
+                Tree<NodeData,EdgeData>.Edge edge = tree.getEdge(random.nextInt(tree.numEdges()));
+                tree.removeEdge(edge);
+                if (random.nextBoolean()) {
+                    tree.removeEdge(edge);
+                }
+            }
+        } else {
+            UnionFind components = components(tree);
+            int u = random.nextInt(n);
+            int v = random.nextInt(n);
+            if (!components.connected(u, v)) {
+                tree.addEdge(new EdgeData(1.0), tree.getNode(u), tree.getNode(v));
+            }
+        }
+    }
+
+    // Why the maintained forest doesn't fit the tree, or null
+    private static String check(Tree<NodeData,EdgeData> tree, DynamicCentroidTree dynamic) {
+        int n = tree.numNodes();
+        Decomposition decomposition = dynamic.toDecomposition();
+        if (decomposition.numCentroids() != n) {
+            return decomposition.numCentroids() + " centroids for " + n + " nodes";
+        }
+
+        ArrayList<ArrayList<Integer>> children = new ArrayList<ArrayList<Integer>>();
+        for (int v = 0; v < n; v++) {
+            children.add(new ArrayList<Integer>());
+        }
+        int roots = 0;
+        for (int v = 0; v < n; v++) {
+            int p = decomposition.getParent(v);
+            if (p != dynamic.getParent(v)) {
+                return "parent of " + v + " differs from the snapshot";
+            }
+            if (p == Decomposition.NO_PARENT) {
+                roots++;
+            } else {
+                children.get(p).add(v);
+            }
+        }
+
+        UnionFind components = components(tree);
+        HashSet<Integer> componentRoots = new HashSet<Integer>();
+        for (int v = 0; v < n; v++) {
+            componentRoots.add(components.find(v));
+        }
+        if (roots != componentRoots.size()) {
+            return roots + " centroid roots for " + componentRoots.size() + " components";
+        }
+
+        for (int c = 0; c < n; c++) {
+            HashSet<Integer> subtree = subtree(children, c);
+            if (dynamic.getSize(c) != subtree.size()) {
+                return "size of " + c + " is " + dynamic.getSize(c) + ", subtree has " + subtree.size();
+            }
+            if (reach(tree, subtree, c, -1).size() != subtree.size()) {
+                return "subtree of " + c + " is not connected";
+            }
+            // Every child's subtree is one whole piece of the subtree without c
+            int covered = 1;
+            for (int child : children.get(c)) {
+                HashSet<Integer> piece = reach(tree, subtree, child, c);
+                if (!piece.equals(subtree(children, child))) {
+                    return "child " + child + " of " + c + " is not a whole piece";
+                }
+                covered += piece.size();
+            }
+            if (covered != subtree.size()) {
+                return "children of " + c + " miss part of its component";
+            }
+        }
+        return null;
+    }
+
+    private static HashSet<Integer> subtree(ArrayList<ArrayList<Integer>> children, int c) {
+        HashSet<Integer> nodes = new HashSet<Integer>();
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(c);
+        while (!stack.isEmpty()) {
+            int v = stack.pop();
+            nodes.add(v);
+            for (int child : children.get(v)) {
+                stack.push(child);
+            }
+        }
+        return nodes;
+    }
+
+    // Nodes of within reachable from start over the tree without passing through skip
+    private static HashSet<Integer> reach(Tree<NodeData,EdgeData> tree, Set<Integer> within, int start, int skip) {
+        HashSet<Integer> seen = new HashSet<Integer>();
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        seen.add(start);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(stack.pop());
+            for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+                int other = edge.getOtherNode(node).getId();
+                if (other != skip && within.contains(other) && seen.add(other)) {
+                    stack.push(other);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static UnionFind components(Tree<NodeData,EdgeData> tree) {
+        UnionFind components = new UnionFind(tree.numNodes());
+        for (Tree<NodeData,EdgeData>.Edge edge : tree.getEdges()) {
+            components.union(edge.getNode().getId(), edge.getOtherNode(edge.getNode()).getId());
+        }
+        return components;
+    }
+}
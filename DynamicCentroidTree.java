@@ -0,0 +1,463 @@
+import java.util.*;
+
+/*
+    Centroid forest of a Tree<NodeData,EdgeData> that is kept up to date
+    while the tree is edited, instead of being recomputed from scratch.
+
+    It listens to the tree. A new edge hangs the centroid tree of the
+    smaller side below the endpoint on the larger side, which is still a
+    valid centroid tree of the joined component. Removing an edge cuts the
+    smaller side off, found by searching both sides in turn: its nodes are
+    taken out of the centroid tree and decomposed on their own. What is
+    left is still a valid centroid tree of the larger side, since each
+    component minus the cut nodes stays connected and so has exactly one
+    topmost centroid left, which moves up into the place of its removed
+    ancestors. Either change is followed by a scapegoat check along the
+    path to the root: the topmost centroid with a child holding more than
+    `balance` of its component, or one that has lost more than half of its
+    nodes since it was built, gets its subtree rebuilt. This keeps the
+    depth O(log n) at an amortized polylog cost per edit. The tree must
+    stay acyclic.
+ */
+public class DynamicCentroidTree implements Tree.Listener<NodeData,EdgeData> {
+
+    // Share of a component a single child may hold before the component is rebuilt
+    public static final double DEFAULT_BALANCE = 0.75;
+
+    private static final int NONE = -1;
+
+    private final Tree<NodeData,EdgeData> tree;
+
+    private final double balance;
+
+    // Centroid forest by node id. Roots are linked as siblings starting at firstRoot.
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] prevSibling;
+    private int firstRoot = NONE;
+
+    // Nodes in each centroid subtree, and the same count when it was last built
+    private int[] size;
+    private int[] builtSize;
+
+    // Scratch for rebuilds; members are stamped with epoch, then epoch + 1 once placed
+    private int[] stamp;
+    private int epoch;
+    private int[] members;
+    private int[] component;
+    private int[] local;
+
+    private final CentroidDecomposer decomposer = new CentroidDecomposer(0);
+
+    // Nodes re-decomposed since construction, to watch the amortized cost
+    private long rebuiltNodes;
+
+
+    public DynamicCentroidTree(Tree<NodeData,EdgeData> tree) {
+        this(tree, DEFAULT_BALANCE);
+    }
+
+    public DynamicCentroidTree(Tree<NodeData,EdgeData> tree, double balance) {
+        this.tree = tree;
+        this.balance = balance;
+        ensureCapacity(Math.max(tree.numNodes(), 16));
+
+        int n = tree.numNodes();
+        epoch += 2;
+        for (int v = 0; v < n; v++) {
+            members[v] = v;
+            stamp[v] = epoch;
+        }
+        rebuildMembers(n, NONE);
+        tree.addListener(this);
+    }
+
+    // Stops following the tree
+    public void detach() {
+        tree.removeListener(this);
+    }
+
+    public long getRebuiltNodes() {
+        return rebuiltNodes;
+    }
+
+    // Centroid parent of v, or -1 for the top centroid of a component
+    public int getParent(int v) {
+        return parent[v];
+    }
+
+    public int getDepth(int v) {
+        return depthOf(v);
+    }
+
+    // Number of nodes in the component v is the centroid of
+    public int getSize(int v) {
+        return size[v];
+    }
+
+    // Snapshot of the current centroid forest, roots in turn with their subtrees in preorder
+    public Decomposition toDecomposition() {
+        int n = tree.numNodes();
+        int[] parentOut = new int[n];
+        int[] depthOut = new int[n];
+        int[] order = new int[n];
+        int count = 0;
+
+        int[] stack = new int[n];
+        for (int root = firstRoot; root != NONE; root = nextSibling[root]) {
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int v = stack[--top];
+                order[count++] = v;
+                parentOut[v] = (parent[v] == NONE) ? Decomposition.NO_PARENT : parent[v];
+                depthOut[v] = (parent[v] == NONE) ? 0 : depthOut[parent[v]] + 1;
+                for (int c = firstChild[v]; c != NONE; c = nextSibling[c]) {
+                    stack[top++] = c;
+                }
+            }
+        }
+        return new Decomposition(parentOut, depthOut, order, count);
+    }
+
+    // Tree.Listener
+
+    public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+        int v = node.getId();
+        ensureCapacity(v + 1);
+        parent[v] = NONE;
+        firstChild[v] = NONE;
+        size[v] = 1;
+        builtSize[v] = 1;
+        link(v, NONE);
+    }
+
+    public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+        int u = edge.getNode().getId();
+        int v = edge.getOtherNode(edge.getNode()).getId();
+        int rootU = rootOf(u);
+        int rootV = rootOf(v);
+        if (rootU == rootV) {
+            throw new IllegalStateException("Edge closes a cycle; DynamicCentroidTree needs an acyclic tree");
+        }
+
+        // Hang the smaller centroid tree below the endpoint in the larger one
+        if (size[rootU] >= size[rootV]) {
+            attach(rootV, u);
+        } else {
+            attach(rootU, v);
+        }
+    }
+
+    public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+        int u = edge.getNode().getId();
+        int v = edge.getOtherNode(edge.getNode()).getId();
+        cut(u, v, smallerSide(u, v));
+    }
+
+    public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+        // Distances don't affect the centroid tree
+    }
+
+    public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+        // The node has no edges left, so it is a root on its own
+        unlink(node.getId());
+    }
+
+    public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+        int v = node.getId();
+        parent[v] = parent[oldId];
+        firstChild[v] = firstChild[oldId];
+        nextSibling[v] = nextSibling[oldId];
+        prevSibling[v] = prevSibling[oldId];
+        size[v] = size[oldId];
+        builtSize[v] = builtSize[oldId];
+
+        if (prevSibling[v] != NONE) {
+            nextSibling[prevSibling[v]] = v;
+        } else if (parent[v] == NONE) {
+            firstRoot = v;
+        } else {
+            firstChild[parent[v]] = v;
+        }
+        if (nextSibling[v] != NONE) {
+            prevSibling[nextSibling[v]] = v;
+        }
+        for (int c = firstChild[v]; c != NONE; c = nextSibling[c]) {
+            parent[c] = v;
+        }
+    }
+
+    // Structural updates
+
+    private void attach(int root, int below) {
+        unlink(root);
+        parent[root] = below;
+        link(root, below);
+
+        int scapegoat = NONE;
+        int child = root;
+        for (int a = below; a != NONE; a = parent[a]) {
+            size[a] += size[root];
+            if (size[child] > balance * size[a]) {
+                scapegoat = a;
+            }
+            child = a;
+        }
+        if (scapegoat != NONE) {
+            rebuild(scapegoat);
+        }
+    }
+
+    /*
+        Searches the two sides of a removed edge u-v in turn, one edge step
+        each, until one side runs out, so the cost follows the smaller side.
+        Leaves that side in members and returns its size.
+     */
+    private int smallerSide(int u, int v) {
+        epoch += 2;
+        int[][] queues = { members, component };
+        int[] counts = { 1, 1 };
+        int[] heads = new int[2];
+        int[] cursors = new int[2];
+        members[0] = u;
+        stamp[u] = epoch;
+        component[0] = v;
+        stamp[v] = epoch + 1;
+
+        for (int side = 0; ; side ^= 1) {
+            int[] queue = queues[side];
+            if (heads[side] == counts[side]) {
+                if (side == 1) {
+                    System.arraycopy(component, 0, members, 0, counts[1]);
+                }
+                return counts[side];
+            }
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(queue[heads[side]]);
+            if (cursors[side] == node.getEdges().size()) {
+                heads[side]++;
+                cursors[side] = 0;
+                continue;
+            }
+            int other = node.getEdges().get(cursors[side]++).getOtherNode(node).getId();
+            if (stamp[other] != epoch + side) {
+                stamp[other] = epoch + side;
+                queue[counts[side]++] = other;
+            }
+        }
+    }
+
+    /*
+        Takes the side in members[0 .. count) out of the centroid tree and
+        decomposes it on its own. Only u and v's common ancestors had
+        components on both sides, and one of u and v is the other's
+        ancestor, so the sizes that shrink and the scapegoat check stay on
+        the root path of the shallower endpoint.
+     */
+    private void cut(int u, int v, int count) {
+        epoch += 2;
+        for (int i = 0; i < count; i++) {
+            stamp[members[i]] = epoch;
+        }
+        int kept = (depthOf(u) <= depthOf(v)) ? u : v;
+        while (kept != NONE && stamp[kept] == epoch) {
+            kept = parent[kept];
+        }
+
+        for (int i = 0; i < count; i++) {
+            for (int a = parent[members[i]]; a != NONE; a = parent[a]) {
+                size[a]--;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int s = members[i];
+            if (parent[s] == NONE || stamp[parent[s]] != epoch) {
+                unlink(s);
+            }
+        }
+        // A remaining child of a cut node moves up to the nearest remaining ancestor
+        for (int i = 0; i < count; i++) {
+            int s = members[i];
+            int next;
+            for (int c = firstChild[s]; c != NONE; c = next) {
+                next = nextSibling[c];
+                if (stamp[c] != epoch) {
+                    int above = parent[s];
+                    while (above != NONE && stamp[above] == epoch) {
+                        above = parent[above];
+                    }
+                    unlink(c);
+                    parent[c] = above;
+                    link(c, above);
+                }
+            }
+        }
+        rebuildMembers(count, NONE);
+
+        int scapegoat = NONE;
+        for (int a = kept; a != NONE; a = parent[a]) {
+            if (2 * size[a] < builtSize[a]) {
+                scapegoat = a;
+            }
+        }
+        if (scapegoat != NONE) {
+            rebuild(scapegoat);
+        }
+    }
+
+    // Re-decomposes the centroid subtree of a in place
+    private void rebuild(int a) {
+        int p = parent[a];
+        unlink(a);
+
+        epoch += 2;
+        int count = 0;
+        members[count++] = a;
+        stamp[a] = epoch;
+        for (int i = 0; i < count; i++) {
+            for (int c = firstChild[members[i]]; c != NONE; c = nextSibling[c]) {
+                stamp[c] = epoch;
+                members[count++] = c;
+            }
+        }
+        rebuildMembers(count, p);
+    }
+
+    // Decomposes each connected component of members[0 .. count) and hangs it below p
+    private void rebuildMembers(int count, int p) {
+        for (int i = 0; i < count; i++) {
+            firstChild[members[i]] = NONE;
+        }
+        for (int i = 0; i < count; i++) {
+            if (stamp[members[i]] == epoch) {
+                decomposeComponent(members[i], p);
+            }
+        }
+        rebuiltNodes += count;
+    }
+
+    private void decomposeComponent(int start, int p) {
+        // Collect the component over the live tree
+        int k = 0;
+        component[k] = start;
+        local[start] = k++;
+        stamp[start] = epoch + 1;
+        int edgeSlots = 0;
+        for (int i = 0; i < k; i++) {
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(component[i]);
+            for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+                int other = edge.getOtherNode(node).getId();
+                if (stamp[other] == epoch) {
+                    stamp[other] = epoch + 1;
+                    local[other] = k;
+                    component[k++] = other;
+                }
+                if (stamp[other] == epoch + 1) {
+                    edgeSlots++;
+                }
+            }
+        }
+
+        // Local CSR copy, so the regular decomposer can run on it
+        int[] offsets = new int[k + 1];
+        int[] neighbors = new int[edgeSlots];
+        int next = 0;
+        for (int i = 0; i < k; i++) {
+            offsets[i] = next;
+            Tree<NodeData,EdgeData>.Node node = tree.getNode(component[i]);
+            for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+                int other = edge.getOtherNode(node).getId();
+                if (stamp[other] == epoch + 1) {
+                    neighbors[next++] = local[other];
+                }
+            }
+        }
+        offsets[k] = next;
+        Decomposition decomposition = decomposer.decompose(
+                new CompactTree(offsets, neighbors, new double[next], null));
+
+        // Copy the result back; parents come before children in the order
+        for (int i = 0; i < k; i++) {
+            int localNode = decomposition.getCentroid(i);
+            int v = component[localNode];
+            int localParent = decomposition.getParent(localNode);
+            parent[v] = (localParent < 0) ? p : component[localParent];
+            size[v] = 1;
+            link(v, parent[v]);
+        }
+        for (int i = k - 1; i > 0; i--) {
+            int v = component[decomposition.getCentroid(i)];
+            size[parent[v]] += size[v];
+        }
+        for (int i = 0; i < k; i++) {
+            builtSize[component[i]] = size[component[i]];
+        }
+    }
+
+    private int depthOf(int v) {
+        int depth = 0;
+        for (int a = parent[v]; a != NONE; a = parent[a]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private int rootOf(int v) {
+        while (parent[v] != NONE) {
+            v = parent[v];
+        }
+        return v;
+    }
+
+    // Adds v to the front of p's children, or of the roots when p is NONE
+    private void link(int v, int p) {
+        int head = (p == NONE) ? firstRoot : firstChild[p];
+        prevSibling[v] = NONE;
+        nextSibling[v] = head;
+        if (head != NONE) {
+            prevSibling[head] = v;
+        }
+        if (p == NONE) {
+            firstRoot = v;
+        } else {
+            firstChild[p] = v;
+        }
+    }
+
+    private void unlink(int v) {
+        if (prevSibling[v] != NONE) {
+            nextSibling[prevSibling[v]] = nextSibling[v];
+        } else if (parent[v] == NONE) {
+            firstRoot = nextSibling[v];
+        } else {
+            firstChild[parent[v]] = nextSibling[v];
+        }
+        if (nextSibling[v] != NONE) {
+            prevSibling[nextSibling[v]] = prevSibling[v];
+        }
+        prevSibling[v] = NONE;
+        nextSibling[v] = NONE;
+    }
+
+    private void ensureCapacity(int n) {
+        if (parent != null && parent.length >= n) {
+            return;
+        }
+        int capacity = (parent == null) ? n : Math.max(n, 2 * parent.length);
+        parent = grow(parent, capacity);
+        firstChild = grow(firstChild, capacity);
+        nextSibling = grow(nextSibling, capacity);
+        prevSibling = grow(prevSibling, capacity);
+        size = grow(size, capacity);
+        builtSize = grow(builtSize, capacity);
+        stamp = grow(stamp, capacity);
+        members = grow(members, capacity);
+        component = grow(component, capacity);
+        local = grow(local, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return (array == null) ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
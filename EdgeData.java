@@ -5,7 +5,10 @@ public class EdgeData {
 
     private Double distance;
 
-    private Color color = new Color(76, 2, 4); //default color
+    private Color color = Palette.EDGE; //default color
+
+    // Drawing geometry, created on first paint
+    private EdgeGeometry geometry;
 
 
     public EdgeData(Double distance) {
@@ -29,6 +32,13 @@ public class EdgeData {
         return color;
     }
 
+    public EdgeGeometry getGeometry() {
+        if (geometry == null) {
+            geometry = new EdgeGeometry();
+        }
+        return geometry;
+    }
+
     // Setters
     public void setDistance(double distance) {
         this.distance = distance;
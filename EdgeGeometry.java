@@ -0,0 +1,119 @@
+import java.awt.*;
+
+/*
+    Cached drawing of one edge: the line, the arrow head at the target and
+    the distance label. It is recomputed only when an endpoint has moved
+    or the distance has changed, so repainting an unchanged edge does no
+    trigonometry and allocates nothing.
+ */
+public class EdgeGeometry {
+
+    // Radius of a drawn node; the arrow stops at the rim of the target
+    public static final int NODE_RADIUS = 40;
+
+    // Length and half width of the arrow head
+    private static final int ARROW_LENGTH = 20;
+    private static final int ARROW_HALF_WIDTH = 10;
+
+    // Endpoints and distance the geometry was computed for
+    private int fromX, fromY, toX, toY;
+    private double forDistance;
+    private boolean computed;
+
+    private int lineX1, lineY1, lineX2, lineY2;
+    private final int[] arrowX = new int[3];
+    private final int[] arrowY = new int[3];
+
+    private String label;
+    private int labelX, labelY;
+
+    // Length shown when the distance is -1 (not set), rounded to two decimals
+    private double length;
+
+    // Area covered by the line, the arrow head and the label
+    private final Rectangle bounds = new Rectangle();
+
+
+    /*
+        Brings the geometry up to date for an edge from `from` to `to`.
+        The arrow is revised from the code of @phibao37
+        http://stackoverflow.com/questions/2027613/how-to-draw-a-directed-arrow-line-in-java
+        Returns true if anything was recomputed.
+     */
+    public boolean update(Point from, Point to, double distance, FontMetrics metrics) {
+        if (computed && from.x == fromX && from.y == fromY && to.x == toX && to.y == toY
+                && distance == forDistance) {
+            return false;
+        }
+        computed = true;
+        fromX = from.x;
+        fromY = from.y;
+        toX = to.x;
+        toY = to.y;
+        forDistance = distance;
+
+        // In double, as int squares overflow for endpoints more than 46340 apart and layouts go far beyond
+        double dx = (double) toX - fromX, dy = (double) toY - fromY;
+        double d = Math.sqrt(dx * dx + dy * dy);
+        double sin = (d == 0) ? 0 : dy / d, cos = (d == 0) ? 1 : dx / d;
+
+        lineX1 = fromX;
+        lineY1 = fromY;
+        lineX2 = (int) (toX - NODE_RADIUS * cos);
+        lineY2 = (int) (toY - NODE_RADIUS * sin);
+        d = d - NODE_RADIUS; // change the length of the line
+        double xm = d - ARROW_LENGTH, xn = xm, ym = ARROW_HALF_WIDTH, yn = -ARROW_HALF_WIDTH, x;
+
+        x = xm * cos - ym * sin + fromX;
+        ym = xm * sin + ym * cos + fromY;
+        xm = x;
+
+        x = xn * cos - yn * sin + fromX;
+        yn = xn * sin + yn * cos + fromY;
+        xn = x;
+
+        arrowX[0] = lineX2;
+        arrowX[1] = (int) xm;
+        arrowX[2] = (int) xn;
+        arrowY[0] = lineY2;
+        arrowY[1] = (int) ym;
+        arrowY[2] = (int) yn;
+
+        length = length(from, to);
+        label = Double.toString((distance == -1.0) ? length : distance);
+        labelX = (int) (xm - 30 * cos);
+        labelY = (int) (ym - 30 * sin);
+
+        bounds.setBounds(lineX1, lineY1, 0, 0);
+        bounds.add(lineX2, lineY2);
+        for (int i = 0; i < 3; i++) {
+            bounds.add(arrowX[i], arrowY[i]);
+        }
+        bounds.add(labelX, labelY - metrics.getAscent());
+        bounds.add(labelX + metrics.stringWidth(label), labelY + metrics.getDescent());
+        // Room for the line width and anti-aliasing
+        bounds.grow(2, 2);
+        return true;
+    }
+
+    public void paint(Graphics g) {
+        g.drawLine(lineX1, lineY1, lineX2, lineY2);
+        g.fillPolygon(arrowX, arrowY, 3);
+        g.drawString(label, labelX, labelY);
+    }
+
+    // Distance between the endpoints, rounded to two decimals
+    public double getLength() {
+        return length;
+    }
+
+    // Same for two positions, the distance a new edge between them starts with
+    public static double length(Point from, Point to) {
+        return Math.round(from.distance(to) * 100) / 100.00;
+    }
+
+    // Valid after update(); callers must not modify it
+    public Rectangle getBounds() {
+        return bounds;
+    }
+}
@@ -0,0 +1,474 @@
+import java.awt.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/*
+    Streaming parser for text edge lists, one "u v [weight]" per line with
+    0-based node ids; a missing weight is 1. Blank lines and '#' comments
+    are skipped, and a lone number on the first data line is taken as the
+    node count.
+
+    Bytes are parsed in place from a ByteBuffer: whole mapped windows of a
+    file, or a direct buffer refilled from a channel. Ids and weights never
+    go through a String (weights with more than 15 significant digits or
+    special values fall back to Double.parseDouble). Parsed edges are handed
+    to an EdgeSink in batches of BATCH_SIZE, and malformed lines are
+    reported to an ErrorSink and skipped, so one bad line doesn't stop a
+    long run.
+ */
+public class EdgeListParser {
+
+    // Receives parsed edges; the arrays are reused after the call returns
+    public interface EdgeSink {
+        void edges(int[] from, int[] to, double[] weight, int count);
+    }
+
+    public interface ErrorSink {
+        void malformedLine(long line, String reason);
+    }
+
+    public static final int BATCH_SIZE = 8192;
+
+    // Read buffer for channels, also the longest line a channel can carry
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Bytes of a file mapped at a time
+    private static final long MAP_WINDOW = 1L << 28;
+
+    // Powers of ten that are exact in a double
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final EdgeSink sink;
+
+    private ErrorSink errors;
+
+    // Pending batch
+    private final int[] from = new int[BATCH_SIZE];
+    private final int[] to = new int[BATCH_SIZE];
+    private final double[] weight = new double[BATCH_SIZE];
+    private int count;
+
+    private long lines;
+    private long edges;
+    private long malformedLines;
+    private int maxNode = -1;
+    private long declaredNodes = -1;
+    private boolean sawData;
+
+    // Set while skipping the rest of a line that didn't fit the buffer
+    private boolean skippingLine;
+
+    // Read position within the line being parsed
+    private int cursor;
+    private boolean badNumber;
+
+    // Scratch for the Double.parseDouble fallback
+    private final char[] chars = new char[64];
+
+
+    public EdgeListParser(EdgeSink sink) {
+        this.sink = sink;
+    }
+
+    public void setErrorSink(ErrorSink errors) {
+        this.errors = errors;
+    }
+
+    // Parses the remaining bytes of the buffer as the whole input
+    public void parse(ByteBuffer buffer) {
+        int consumed = parseLines(buffer, buffer.position(), buffer.limit(), true);
+        buffer.position(consumed);
+        flush();
+    }
+
+    // Reads the channel to its end through one direct buffer
+    public void parse(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        boolean end = false;
+        while (!end) {
+            end = channel.read(buffer) < 0;
+            if (!end && buffer.hasRemaining()) {
+                continue;
+            }
+            buffer.flip();
+            int consumed = parseLines(buffer, 0, buffer.limit(), end);
+            if (consumed == 0 && buffer.limit() == buffer.capacity()) {
+                consumed = startSkipping(buffer.limit());
+            }
+            buffer.position(consumed);
+            buffer.compact();
+        }
+        flush();
+    }
+
+    // Maps the file a window at a time, so files larger than 2 GB work too
+    public void parse(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long length = Math.min(MAP_WINDOW, size - start);
+                boolean last = start + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                int consumed = parseLines(window, 0, (int) length, last);
+                if (consumed == 0 && !last) {
+                    consumed = startSkipping((int) length);
+                }
+                start += consumed;
+            }
+        } finally {
+            raf.close();
+        }
+        flush();
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getEdges() {
+        return edges;
+    }
+
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    // Node count from the input, or -1 if it didn't give one
+    public long getDeclaredNodes() {
+        return declaredNodes;
+    }
+
+    // Declared node count, or one more than the largest id seen
+    public int numNodes() {
+        return (declaredNodes >= 0) ? (int) declaredNodes : maxNode + 1;
+    }
+
+    /*
+        Parses the complete lines in [start, end) and returns the position
+        after the last one. An unterminated last line is parsed only if the
+        input ends there.
+     */
+    private int parseLines(ByteBuffer buffer, int start, int end, boolean last) {
+        int position = start;
+        if (skippingLine) {
+            int newline = indexOfNewline(buffer, position, end);
+            if (newline < 0) {
+                return end;
+            }
+            skippingLine = false;
+            position = newline + 1;
+        }
+        while (position < end) {
+            int newline = indexOfNewline(buffer, position, end);
+            if (newline < 0 && !last) {
+                break;
+            }
+            int lineEnd = (newline < 0) ? end : newline;
+            lines++;
+            parseLine(buffer, position, lineEnd);
+            position = (newline < 0) ? end : newline + 1;
+        }
+        return position;
+    }
+
+    // The line starting the unconsumed bytes is longer than the buffer; drop it
+    private int startSkipping(int length) {
+        lines++;
+        malformed("line longer than " + length + " bytes");
+        skippingLine = true;
+        return length;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        cursor = start;
+        skipBlanks(buffer, end);
+        if (atLineEnd(buffer, end)) {
+            return;
+        }
+
+        long u = readId(buffer, end);
+        if (u < 0) {
+            malformed("expected a node id");
+            return;
+        }
+        skipBlanks(buffer, end);
+        if (atLineEnd(buffer, end)) {
+            if (!sawData) {
+                sawData = true;
+                declaredNodes = u;
+            } else {
+                malformed("expected \"u v weight\"");
+            }
+            return;
+        }
+        sawData = true;
+
+        long v = readId(buffer, end);
+        if (v < 0) {
+            malformed("expected a node id");
+            return;
+        }
+        if (u == v) {
+            malformed("edge from a node to itself");
+            return;
+        }
+        if (declaredNodes >= 0 && (u >= declaredNodes || v >= declaredNodes)) {
+            malformed("node id out of range 0 .. " + (declaredNodes - 1));
+            return;
+        }
+        skipBlanks(buffer, end);
+        double w = 1.0;
+        if (!atLineEnd(buffer, end)) {
+            w = readDouble(buffer, end);
+            if (badNumber) {
+                malformed("bad weight");
+                return;
+            }
+            skipBlanks(buffer, end);
+            if (!atLineEnd(buffer, end)) {
+                malformed("trailing input after the weight");
+                return;
+            }
+        }
+
+        from[count] = (int) u;
+        to[count] = (int) v;
+        weight[count] = w;
+        maxNode = Math.max(maxNode, (int) Math.max(u, v));
+        edges++;
+        if (++count == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (count > 0) {
+            sink.edges(from, to, weight, count);
+            count = 0;
+        }
+    }
+
+    private void malformed(String reason) {
+        malformedLines++;
+        if (errors != null) {
+            errors.malformedLine(lines, reason);
+        }
+    }
+
+    // Non-negative int at the cursor, or -1
+    private long readId(ByteBuffer buffer, int end) {
+        long value = 0;
+        int start = cursor;
+        while (cursor < end && isDigit(buffer.get(cursor))) {
+            value = value * 10 + (buffer.get(cursor++) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        if (cursor == start || !atTokenEnd(buffer, end)) {
+            return -1;
+        }
+        return value;
+    }
+
+    /*
+        Decimal number at the cursor. Up to 15 significant digits and a
+        power of ten up to 22 are exact in a double, so the fast path is
+        correctly rounded; anything else goes through Double.parseDouble.
+     */
+    private double readDouble(ByteBuffer buffer, int end) {
+        badNumber = false;
+        int start = cursor;
+        boolean negative = false;
+        if (cursor < end && (buffer.get(cursor) == '-' || buffer.get(cursor) == '+')) {
+            negative = buffer.get(cursor++) == '-';
+        }
+
+        long mantissa = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        while (cursor < end && isDigit(buffer.get(cursor))) {
+            int digit = buffer.get(cursor++) - '0';
+            anyDigits = true;
+            if (mantissa != 0 || digit != 0) {
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + digit;
+                } else {
+                    exponent++;
+                }
+                significant++;
+            }
+        }
+        if (cursor < end && buffer.get(cursor) == '.') {
+            cursor++;
+            while (cursor < end && isDigit(buffer.get(cursor))) {
+                int digit = buffer.get(cursor++) - '0';
+                anyDigits = true;
+                if (mantissa != 0 || digit != 0) {
+                    if (significant < 18) {
+                        mantissa = mantissa * 10 + digit;
+                        exponent--;
+                    }
+                    significant++;
+                } else {
+                    exponent--;
+                }
+            }
+        }
+        if (anyDigits && cursor < end && (buffer.get(cursor) == 'e' || buffer.get(cursor) == 'E')) {
+            cursor++;
+            boolean negativeExponent = false;
+            if (cursor < end && (buffer.get(cursor) == '-' || buffer.get(cursor) == '+')) {
+                negativeExponent = buffer.get(cursor++) == '-';
+            }
+            int digits = 0;
+            int value = 0;
+            while (cursor < end && isDigit(buffer.get(cursor))) {
+                value = Math.min(100000, value * 10 + (buffer.get(cursor++) - '0'));
+                digits++;
+            }
+            if (digits == 0) {
+                anyDigits = false;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (anyDigits && significant <= 15 && Math.abs(exponent) < POWERS_OF_TEN.length
+                && atTokenEnd(buffer, end)) {
+            double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+
+        // Slow path: hand the token to the JDK
+        cursor = start;
+        int length = 0;
+        while (!atTokenEnd(buffer, end)) {
+            if (length == chars.length) {
+                badNumber = true;
+                return 0;
+            }
+            chars[length++] = (char) buffer.get(cursor++);
+        }
+        try {
+            return Double.parseDouble(new String(chars, 0, length));
+        } catch (NumberFormatException e) {
+            badNumber = true;
+            return 0;
+        }
+    }
+
+    private void skipBlanks(ByteBuffer buffer, int end) {
+        while (cursor < end && isBlank(buffer.get(cursor))) {
+            cursor++;
+        }
+    }
+
+    private boolean atLineEnd(ByteBuffer buffer, int end) {
+        return cursor == end || buffer.get(cursor) == '#';
+    }
+
+    private boolean atTokenEnd(ByteBuffer buffer, int end) {
+        return atLineEnd(buffer, end) || isBlank(buffer.get(cursor));
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    // Collects the edges into flat arrays for CompactTree.fromEdges
+    public static class CompactBuilder implements EdgeSink {
+
+        private int[] from = new int[BATCH_SIZE];
+        private int[] to = new int[BATCH_SIZE];
+        private double[] weight = new double[BATCH_SIZE];
+        private int numEdges;
+
+        public void edges(int[] batchFrom, int[] batchTo, double[] batchWeight, int count) {
+            if (numEdges + count > from.length) {
+                int capacity = Math.max(numEdges + count, from.length + (from.length >> 1));
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+            }
+            System.arraycopy(batchFrom, 0, from, numEdges, count);
+            System.arraycopy(batchTo, 0, to, numEdges, count);
+            System.arraycopy(batchWeight, 0, weight, numEdges, count);
+            numEdges += count;
+        }
+
+        public int numEdges() {
+            return numEdges;
+        }
+
+        // Every edge id must be below numNodes, see EdgeListParser.numNodes()
+        public CompactTree build(int numNodes) {
+            return CompactTree.fromEdges(numNodes, from, to, weight, numEdges);
+        }
+    }
+
+    /*
+        Adds the edges to a Tree, creating nodes labelled by id as needed.
+        Edges the tree turns down (duplicates, or cycles with cycle checking
+        on) are counted, not added.
+     */
+    public static class TreeBuilder implements EdgeSink {
+
+        private final Tree<NodeData,EdgeData> tree;
+
+        private long rejected;
+
+
+        public TreeBuilder(Tree<NodeData,EdgeData> tree) {
+            this.tree = tree;
+        }
+
+        public void edges(int[] from, int[] to, double[] weight, int count) {
+            for (int i = 0; i < count; i++) {
+                ensureNodes(Math.max(from[i], to[i]) + 1);
+                if (tree.addEdge(new EdgeData(weight[i]), tree.getNode(from[i]), tree.getNode(to[i])) == null) {
+                    rejected++;
+                }
+            }
+        }
+
+        // Adds nodes until the tree has at least numNodes, e.g. for isolated nodes
+        public void ensureNodes(int numNodes) {
+            while (tree.numNodes() < numNodes) {
+                tree.addNode(new NodeData(new Point(0, 0), Integer.toString(tree.numNodes())));
+            }
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+    }
+}
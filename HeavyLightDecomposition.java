@@ -0,0 +1,311 @@
+import java.util.*;
+
+/*
+    Heavy-light decomposition of a tree or forest for path sums and maxima
+    of edge distances while the distances keep changing.
+
+    Every node's heavy child is its child with the largest subtree, and
+    following heavy children splits the tree into heavy paths. Any root path
+    crosses O(log n) of them, since each light edge at least halves the
+    subtree size. Nodes are numbered so that every heavy path is one run of
+    positions, and the distance of the edge to a node's parent is kept at
+    the node's position in one segment tree holding sums and maxima. A path
+    query is a range query per heavy path, O(log^2 n), and changing a
+    distance is a single leaf update, O(log n).
+
+    Built on a live Tree it follows distances reported through
+    Tree.edgeChanged, like TreeFingerprint. Adding or removing nodes and
+    edges renumbers the tree, so the decomposition is rebuilt in O(n) on the
+    next query after such a change. Node ids are the tree's ids.
+ */
+public class HeavyLightDecomposition implements Tree.Listener<NodeData,EdgeData> {
+
+    // Live tree to rebuild from, or null for one built on a CompactTree
+    private final Tree<NodeData,EdgeData> tree;
+
+    // Set by structural changes of the live tree
+    private boolean stale;
+
+    private int n;
+
+    // Parent, root of the component, edges from the root
+    private int[] parent;
+    private int[] root;
+    private int[] depth;
+
+    // Top node of the heavy path through each node, and each node's position
+    private int[] head;
+    private int[] position;
+
+    // Segment trees over positions: leaves at n + position, node i covers its children 2i and 2i + 1
+    private double[] sum;
+    private double[] max;
+
+
+    // Follows the tree until detached
+    public HeavyLightDecomposition(Tree<NodeData,EdgeData> tree) {
+        this.tree = tree;
+        build(CompactTree.fromTree(tree));
+        tree.addListener(this);
+    }
+
+    // Fixed structure; distances change only through setDistance
+    public HeavyLightDecomposition(CompactTree tree) {
+        this.tree = null;
+        build(tree);
+    }
+
+    public void detach() {
+        if (tree != null) {
+            tree.removeListener(this);
+        }
+    }
+
+    private void build(CompactTree compact) {
+        int[] offsets = compact.getOffsets();
+        int[] neighbors = compact.getNeighbors();
+        double[] weights = compact.getWeights();
+        n = compact.numNodes();
+        parent = new int[n];
+        root = new int[n];
+        depth = new int[n];
+        head = new int[n];
+        position = new int[n];
+        double[] parentDistance = new double[n];
+
+        // Breadth-first order of every component, so parents come before children
+        int[] order = new int[n];
+        Arrays.fill(root, -1);
+        int numOrdered = 0;
+        for (int r = 0; r < n; r++) {
+            if (root[r] >= 0) {
+                continue;
+            }
+            root[r] = r;
+            parent[r] = -1;
+            order[numOrdered++] = r;
+            for (int i = numOrdered - 1; i < numOrdered; i++) {
+                int v = order[i];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int u = neighbors[e];
+                    if (root[u] < 0) {
+                        root[u] = r;
+                        parent[u] = v;
+                        depth[u] = depth[v] + 1;
+                        parentDistance[u] = weights[e];
+                        order[numOrdered++] = u;
+                    }
+                }
+            }
+        }
+
+        // Subtree sizes bottom up, and the heavy child of every node
+        int[] size = new int[n];
+        int[] heavy = new int[n];
+        Arrays.fill(heavy, -1);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = order[i];
+            size[v]++;
+            int p = parent[v];
+            if (p >= 0) {
+                size[p] += size[v];
+                if (heavy[p] < 0 || size[v] > size[heavy[p]]) {
+                    heavy[p] = v;
+                }
+            }
+        }
+
+        // Positions: walk each heavy path down from its head, queueing the light children met on the way
+        int[] stack = order;
+        int top = 0;
+        int next = 0;
+        for (int r = 0; r < n; r++) {
+            if (root[r] != r) {
+                continue;
+            }
+            stack[top++] = r;
+            while (top > 0) {
+                int h = stack[--top];
+                for (int v = h; v >= 0; v = heavy[v]) {
+                    head[v] = h;
+                    position[v] = next++;
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        int u = neighbors[e];
+                        if (parent[u] == v && u != heavy[v]) {
+                            stack[top++] = u;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Roots have no edge above them, so they hold the identities
+        sum = new double[2 * n];
+        max = new double[2 * n];
+        for (int v = 0; v < n; v++) {
+            sum[n + position[v]] = (parent[v] < 0) ? 0.0 : parentDistance[v];
+            max[n + position[v]] = (parent[v] < 0) ? Double.NEGATIVE_INFINITY : parentDistance[v];
+        }
+        for (int i = n - 1; i > 0; i--) {
+            sum[i] = sum[2 * i] + sum[2 * i + 1];
+            max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+        }
+        stale = false;
+    }
+
+    // Rebuilds after structural changes of the live tree
+    private void update() {
+        if (stale) {
+            build(CompactTree.fromTree(tree));
+        }
+    }
+
+    public int numNodes() {
+        update();
+        return n;
+    }
+
+    // Sets the distance of the edge between adjacent nodes u and v. O(log n)
+    public void setDistance(int u, int v, double distance) {
+        update();
+        int i = n + position[lower(u, v)];
+        sum[i] = distance;
+        max[i] = distance;
+        for (i >>= 1; i > 0; i >>= 1) {
+            sum[i] = sum[2 * i] + sum[2 * i + 1];
+            max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+        }
+    }
+
+    public double getDistance(int u, int v) {
+        update();
+        return sum[n + position[lower(u, v)]];
+    }
+
+    // End of the edge u-v further from the root, which holds its distance
+    private int lower(int u, int v) {
+        if (parent[v] == u) {
+            return v;
+        }
+        if (parent[u] == v) {
+            return u;
+        }
+        throw new IllegalArgumentException("Nodes " + u + " and " + v + " are not adjacent");
+    }
+
+    // Lowest common ancestor of u and v, or -1 if they aren't connected. O(log n)
+    public int lca(int u, int v) {
+        update();
+        if (root[u] != root[v]) {
+            return -1;
+        }
+        while (head[u] != head[v]) {
+            if (depth[head[u]] < depth[head[v]]) {
+                int swap = u;
+                u = v;
+                v = swap;
+            }
+            u = parent[head[u]];
+        }
+        return (depth[u] < depth[v]) ? u : v;
+    }
+
+    // Sum of the distances on the path between u and v, or infinity if they aren't connected
+    public double pathSum(int u, int v) {
+        update();
+        return path(u, v, false);
+    }
+
+    // Largest distance on the path, -infinity if u == v, or infinity if they aren't connected
+    public double pathMax(int u, int v) {
+        update();
+        return path(u, v, true);
+    }
+
+    // Batched path sums: result[i] = pathSum(us[i], vs[i])
+    public void pathSums(int[] us, int[] vs, int count, double[] result) {
+        update();
+        for (int i = 0; i < count; i++) {
+            result[i] = path(us[i], vs[i], false);
+        }
+    }
+
+    // Batched path maxima: result[i] = pathMax(us[i], vs[i])
+    public void pathMaxima(int[] us, int[] vs, int count, double[] result) {
+        update();
+        for (int i = 0; i < count; i++) {
+            result[i] = path(us[i], vs[i], true);
+        }
+    }
+
+    // One range query per heavy path, climbing from whichever end has the deeper head
+    private double path(int u, int v, boolean maximum) {
+        if (root[u] != root[v]) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double result = maximum ? Double.NEGATIVE_INFINITY : 0.0;
+        while (head[u] != head[v]) {
+            if (depth[head[u]] < depth[head[v]]) {
+                int swap = u;
+                u = v;
+                v = swap;
+            }
+            // The head's own position holds the light edge above it
+            double range = range(position[head[u]], position[u], maximum);
+            result = maximum ? Math.max(result, range) : result + range;
+            u = parent[head[u]];
+        }
+        if (u != v) {
+            // Same heavy path: the edges below the upper node
+            int low = Math.min(position[u], position[v]), high = Math.max(position[u], position[v]);
+            double range = range(low + 1, high, maximum);
+            result = maximum ? Math.max(result, range) : result + range;
+        }
+        return result;
+    }
+
+    // Sum or maximum over positions from .. to, inclusive
+    private double range(int from, int to, boolean maximum) {
+        double[] values = maximum ? max : sum;
+        double result = maximum ? Double.NEGATIVE_INFINITY : 0.0;
+        for (int l = from + n, r = to + n + 1; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = maximum ? Math.max(result, values[l]) : result + values[l];
+                l++;
+            }
+            if ((r & 1) == 1) {
+                r--;
+                result = maximum ? Math.max(result, values[r]) : result + values[r];
+            }
+        }
+        return result;
+    }
+
+    public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+        stale = true;
+    }
+
+    public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+        stale = true;
+    }
+
+    public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+        stale = true;
+    }
+
+    // A rebuild reads the new distance anyway
+    public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+        if (!stale) {
+            setDistance(edge.getNode().getId(), edge.getOtherNode(edge.getNode()).getId(),
+                    edge.getData().getDistance());
+        }
+    }
+
+    public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+        stale = true;
+    }
+
+    public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+        stale = true;
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.*;
+
+/*
+    Lowest common ancestor and distance index of a tree or forest, with each
+    component rooted at its lowest node id. Unlike the centroid tables it
+    needs no decomposition: an Euler tour with a sparse table over it
+    answers lca(u, v) and dist(u, v) in O(1) after an O(n log n) build.
+
+    The tour lists a node on entry and again after each of its children,
+    2n - 1 entries per component of n nodes, and first[v] is v's first
+    entry. The lca of u and v is the shallowest node of the tour between
+    first[u] and first[v]. The tour holds preorder numbers rather than node
+    ids, and an ancestor always comes before its descendants in preorder,
+    so the shallowest node is simply the smallest number and the sparse
+    table is a plain int minimum without looking up depths. Tours of
+    different components are separated by a -1, so a query across them
+    comes out as -1 without a separate check.
+
+    dist(u, v) = rootDistance[u] + rootDistance[v] - 2 rootDistance[lca],
+    summing EdgeData distances along each path from the root. A query
+    reads a few scattered array entries, so it runs at memory speed once
+    the tables outgrow the cache; batches don't change that but save the
+    call overhead.
+ */
+public class LcaIndex {
+
+    // Tour entry between components, below every preorder number
+    private static final int SEPARATOR = -1;
+
+    private final int n;
+
+    // Preorder numbers along the Euler tour, and the first position of each node in it
+    private final int[] tour;
+    private final int[] first;
+
+    // Node with each preorder number
+    private final int[] nodeAt;
+
+    // Root of each node's component
+    private final int[] root;
+
+    // Edges and weighted distance from the root
+    private final int[] depth;
+    private final double[] rootDistance;
+
+    // rootDistance by preorder number, so a distance query needs no nodeAt lookup
+    private final double[] preorderDistance;
+
+    // table[k][i] = smallest entry of tour[i .. i + 2^k - 1]
+    private final int[][] table;
+
+
+    public LcaIndex(Tree<NodeData,EdgeData> tree) {
+        this(CompactTree.fromTree(tree));
+    }
+
+    public LcaIndex(CompactTree tree) {
+        n = tree.numNodes();
+        first = new int[n];
+        nodeAt = new int[n];
+        root = new int[n];
+        depth = new int[n];
+        rootDistance = new double[n];
+        preorderDistance = new double[n];
+        // One entry per node plus one per edge, i.e. 2n - 1 per component, and the separators
+        int components = n - tree.numEdges();
+        tour = new int[Math.max(0, n + tree.numEdges() + components - 1)];
+
+        buildTour(tree);
+        table = buildTable(tour);
+    }
+
+    // Iterative DFS over every component, so deep paths don't overflow the stack
+    private void buildTour(CompactTree tree) {
+        int[] offsets = tree.getOffsets();
+        int[] neighbors = tree.getNeighbors();
+        double[] weights = tree.getWeights();
+
+        int[] stack = new int[n];
+        // Next edge to look at for each node on the stack
+        int[] cursor = new int[n];
+        int[] parent = new int[n];
+        int[] preorder = new int[n];
+        Arrays.fill(root, -1);
+
+        int length = 0;
+        int numbered = 0;
+        for (int r = 0; r < n; r++) {
+            if (root[r] >= 0) {
+                continue;
+            }
+            if (length > 0) {
+                tour[length++] = SEPARATOR;
+            }
+            int top = 0;
+            stack[top++] = r;
+            root[r] = r;
+            parent[r] = -1;
+            cursor[r] = offsets[r];
+            preorder[r] = numbered;
+            nodeAt[numbered++] = r;
+            first[r] = length;
+            tour[length++] = preorder[r];
+
+            while (top > 0) {
+                int v = stack[top - 1];
+                if (cursor[v] == offsets[v + 1]) {
+                    // Done with v, its parent shows up again in the tour
+                    top--;
+                    if (top > 0) {
+                        tour[length++] = preorder[stack[top - 1]];
+                    }
+                    continue;
+                }
+                int e = cursor[v]++;
+                int u = neighbors[e];
+                if (u == parent[v]) {
+                    continue;
+                }
+                root[u] = r;
+                parent[u] = v;
+                cursor[u] = offsets[u];
+                depth[u] = depth[v] + 1;
+                rootDistance[u] = rootDistance[v] + weights[e];
+                preorderDistance[numbered] = rootDistance[u];
+                preorder[u] = numbered;
+                nodeAt[numbered++] = u;
+                first[u] = length;
+                tour[length++] = preorder[u];
+                stack[top++] = u;
+            }
+        }
+    }
+
+    private static int[][] buildTable(int[] tour) {
+        int levels = (tour.length == 0) ? 1 : 32 - Integer.numberOfLeadingZeros(tour.length);
+        int[][] table = new int[levels][];
+        table[0] = tour;
+        for (int k = 1; k < levels; k++) {
+            int[] below = table[k - 1];
+            int half = 1 << (k - 1);
+            int[] row = new int[tour.length - (1 << k) + 1];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = Math.min(below[i], below[i + half]);
+            }
+            table[k] = row;
+        }
+        return table;
+    }
+
+    public int numNodes() {
+        return n;
+    }
+
+    // Root of v's component: its lowest node id
+    public int getRoot(int v) {
+        return root[v];
+    }
+
+    // Number of edges between v and its root
+    public int getDepth(int v) {
+        return depth[v];
+    }
+
+    // Weighted distance between v and its root
+    public double getRootDistance(int v) {
+        return rootDistance[v];
+    }
+
+    // Lowest common ancestor of u and v, or -1 if they aren't connected
+    public int lca(int u, int v) {
+        int a = minimum(first[u], first[v]);
+        return (a == SEPARATOR) ? -1 : nodeAt[a];
+    }
+
+    // Weighted distance between u and v, or infinity if they aren't connected
+    public double distance(int u, int v) {
+        int a = minimum(first[u], first[v]);
+        if (a == SEPARATOR) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return rootDistance[u] + rootDistance[v] - 2 * preorderDistance[a];
+    }
+
+    // Preorder number of the lca, or SEPARATOR; the smallest tour entry between positions i and j
+    private int minimum(int i, int j) {
+        int low = Math.min(i, j), high = Math.max(i, j);
+        int k = 31 - Integer.numberOfLeadingZeros(high - low + 1);
+        int[] row = table[k];
+        return Math.min(row[low], row[high - (1 << k) + 1]);
+    }
+
+    // Batched lca queries: result[i] = lca(us[i], vs[i])
+    public void lcas(int[] us, int[] vs, int count, int[] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = lca(us[i], vs[i]);
+        }
+    }
+
+    // Batched distance queries: result[i] = distance(us[i], vs[i])
+    public void distances(int[] us, int[] vs, int count, double[] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = distance(us[i], vs[i]);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.*;
+
+/*
+    Answers "distance to the nearest marked node" over a weighted tree,
+    using the centroid tree of a full decomposition.
+
+    Every node's centroid ancestors and distances come from a
+    CentroidDistanceTable. Every centroid stores the nodes of its component sorted by
+    distance to it, so the nearest marked node in a component is simply the
+    first marked entry of that list. A node has O(log n) centroid ancestors,
+    which makes mark and nearest O(log n). When unmark takes away the first
+    marked entry of a component, the next one is found in a 64-way tree of
+    bit words over all entries in O(log n / 6), so unmark is O(log^2 n) at
+    worst however sparse the marks are.
+ */
+public class NearestMarkedService {
+
+    private final int n;
+
+    private final CentroidDistanceTable table;
+
+    // Centroid ancestors of v, top first: ancestor[ancestorStart[v] .. ancestorStart[v+1]), shared with the table
+    private final int[] ancestorStart;
+    private final int[] ancestor;
+    private final double[] ancestorDistance;
+
+    // Where v sits in each ancestor's member list, aligned with ancestor[]
+    private final int[] memberPosition;
+
+    // Component of centroid c sorted by distance to c: member[memberStart[c] .. memberStart[c+1])
+    private final int[] memberStart;
+    private final int[] memberNode;
+    private final double[] memberDistance;
+
+    // Marked member entries: bit i of level k + 1 is set when word i of level k is not zero
+    private final long[][] markedLevels;
+
+    // First marked entry of each centroid, memberStart[c+1] if none
+    private final int[] firstMarked;
+
+    private final boolean[] marked;
+
+
+    public NearestMarkedService(Tree<NodeData,EdgeData> tree) {
+        this(CompactTree.fromTree(tree));
+    }
+
+    public NearestMarkedService(CompactTree tree) {
+        this(new CentroidDistanceTable(tree));
+    }
+
+    public NearestMarkedService(CentroidDistanceTable table) {
+        this.table = table;
+        n = table.numNodes();
+        ancestorStart = table.getAncestorStart();
+        ancestor = table.getAncestors();
+        ancestorDistance = table.getAncestorDistances();
+        Decomposition decomposition = table.getDecomposition();
+
+        // A centroid's component is every node that has it as an ancestor
+        memberStart = new int[n + 1];
+        for (int k = 0; k < ancestor.length; k++) {
+            memberStart[ancestor[k] + 1]++;
+        }
+        for (int c = 0; c < n; c++) {
+            memberStart[c + 1] += memberStart[c];
+        }
+
+        int entries = ancestor.length;
+        memberNode = new int[entries];
+        memberDistance = new double[entries];
+        memberPosition = new int[entries];
+        int[] filled = new int[n];
+        for (int v = 0; v < n; v++) {
+            for (int k = ancestorStart[v]; k < ancestorStart[v + 1]; k++) {
+                int slot = memberStart[ancestor[k]] + filled[ancestor[k]]++;
+                memberNode[slot] = v;
+                memberDistance[slot] = ancestorDistance[k];
+            }
+        }
+
+        // Sort every component by distance and point the nodes at their entries
+        for (int c = 0; c < n; c++) {
+            Sorting.sortByKey(memberDistance, memberNode, memberStart[c], memberStart[c + 1]);
+            int level = decomposition.getDepth(c);
+            for (int p = memberStart[c]; p < memberStart[c + 1]; p++) {
+                memberPosition[ancestorStart[memberNode[p]] + level] = p;
+            }
+        }
+
+        int levels = 1;
+        for (int words = (entries + 63) >>> 6; words > 1; words = (words + 63) >>> 6) {
+            levels++;
+        }
+        markedLevels = new long[levels][];
+        for (int k = 0, bits = entries; k < levels; k++, bits = (bits + 63) >>> 6) {
+            markedLevels[k] = new long[Math.max(1, (bits + 63) >>> 6)];
+        }
+        firstMarked = new int[n];
+        System.arraycopy(memberStart, 1, firstMarked, 0, n);
+        marked = new boolean[n];
+    }
+
+    public CentroidDistanceTable getTable() {
+        return table;
+    }
+
+    public int numNodes() {
+        return n;
+    }
+
+    public boolean isMarked(int v) {
+        return marked[v];
+    }
+
+    public void mark(int v) {
+        if (marked[v]) {
+            return;
+        }
+        marked[v] = true;
+        for (int k = ancestorStart[v]; k < ancestorStart[v + 1]; k++) {
+            int c = ancestor[k];
+            int p = memberPosition[k];
+            setMarked(p);
+            if (p < firstMarked[c]) {
+                firstMarked[c] = p;
+            }
+        }
+    }
+
+    public void unmark(int v) {
+        if (!marked[v]) {
+            return;
+        }
+        marked[v] = false;
+        for (int k = ancestorStart[v]; k < ancestorStart[v + 1]; k++) {
+            int c = ancestor[k];
+            int p = memberPosition[k];
+            clearMarked(p);
+            if (p == firstMarked[c]) {
+                int next = nextMarked(p + 1);
+                firstMarked[c] = (next < 0 || next >= memberStart[c + 1]) ? memberStart[c + 1] : next;
+            }
+        }
+    }
+
+    // Sets the bit of entry p and of every word that was empty until now
+    private void setMarked(int p) {
+        for (long[] words : markedLevels) {
+            int w = p >>> 6;
+            boolean wasEmpty = words[w] == 0;
+            words[w] |= 1L << p;
+            if (!wasEmpty) {
+                return;
+            }
+            p = w;
+        }
+    }
+
+    private void clearMarked(int p) {
+        for (long[] words : markedLevels) {
+            int w = p >>> 6;
+            words[w] &= ~(1L << p);
+            if (words[w] != 0) {
+                return;
+            }
+            p = w;
+        }
+    }
+
+    // First marked entry at or after p, or -1: climb to a word with a bit at or after p, then descend
+    private int nextMarked(int p) {
+        int k = 0;
+        while (true) {
+            if (k == markedLevels.length || (p >>> 6) >= markedLevels[k].length) {
+                return -1;
+            }
+            int w = p >>> 6;
+            long bits = markedLevels[k][w] & (-1L << p);
+            if (bits != 0) {
+                p = (w << 6) + Long.numberOfTrailingZeros(bits);
+                break;
+            }
+            p = w + 1;
+            k++;
+        }
+        while (k > 0) {
+            k--;
+            p = (p << 6) + Long.numberOfTrailingZeros(markedLevels[k][p]);
+        }
+        return p;
+    }
+
+    // Distance from v to the nearest marked node, or infinity if none is reachable
+    public double nearest(int v) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int k = ancestorStart[v]; k < ancestorStart[v + 1]; k++) {
+            int c = ancestor[k];
+            int f = firstMarked[c];
+            if (f < memberStart[c + 1]) {
+                best = Math.min(best, ancestorDistance[k] + memberDistance[f]);
+            }
+        }
+        return best;
+    }
+
+    // Id of the nearest marked node, or -1 if none is reachable
+    public int nearestNode(int v) {
+        double best = Double.POSITIVE_INFINITY;
+        int bestNode = -1;
+        for (int k = ancestorStart[v]; k < ancestorStart[v + 1]; k++) {
+            int c = ancestor[k];
+            int f = firstMarked[c];
+            if (f < memberStart[c + 1] && ancestorDistance[k] + memberDistance[f] < best) {
+                best = ancestorDistance[k] + memberDistance[f];
+                bestNode = memberNode[f];
+            }
+        }
+        return bestNode;
+    }
+
+    // Batched versions, for pushing large update and query streams through in one call
+
+    public void mark(int[] nodes, int count) {
+        for (int i = 0; i < count; i++) {
+            mark(nodes[i]);
+        }
+    }
+
+    public void unmark(int[] nodes, int count) {
+        for (int i = 0; i < count; i++) {
+            unmark(nodes[i]);
+        }
+    }
+
+    public void nearest(int[] nodes, int count, double[] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = nearest(nodes[i]);
+        }
+    }
+
+    public void clear() {
+        for (long[] words : markedLevels) {
+            Arrays.fill(words, 0);
+        }
+        System.arraycopy(memberStart, 1, firstMarked, 0, n);
+        Arrays.fill(marked, false);
+    }
+}
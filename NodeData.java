@@ -8,7 +8,7 @@ public class NodeData {
     private String text;
 
     // default
-    private Color color = new Color(58, 5, 94);
+    private Color color = Palette.NODE;
 
 
     public NodeData(Point position, String text) {
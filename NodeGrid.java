@@ -0,0 +1,585 @@
+import java.awt.*;
+import java.util.*;
+
+/*
+    Uniform grid over node positions, for hit-testing and for drawing only
+    what is on screen. Only occupied cells are stored, so the canvas size
+    doesn't matter. A radius query looks at the cells overlapping the
+    circle, so it costs about the number of nodes near the point rather
+    than the number of nodes in the tree.
+
+    Blocks of 2^level by 2^level cells, up to LEVELS, serve two purposes.
+    Each edge is kept in the blocks its bounding box covers at the finest
+    level where that is at most 2 by 2 blocks, so an edge that crosses a
+    rectangle is found even when both of its ends are outside, and long
+    edges don't fill thousands of cells. Node counts are kept per block as
+    well, for zoomed out views and for nearest queries: those search the
+    blocks best first, from the at most 2 by 2 blocks of COUNT_LEVELS down
+    to cells, always opening the block closest to the point. Empty blocks
+    are never opened, so a point far from every node costs about
+    COUNT_LEVELS steps rather than a scan of the empty cells in between.
+    The counts live in primitive hash tables, one per level, and reindex()
+    builds each level from the one below instead of adding every node to
+    all of them.
+
+    The grid listens to the tree for added and removed nodes and edges.
+    Positions must be changed through move(), which keeps the node and its
+    edges in the right cells, or followed by reindex().
+ */
+public class NodeGrid implements Tree.Listener<NodeData,EdgeData> {
+
+    public interface NodeVisitor {
+        void visit(Tree<NodeData,EdgeData>.Node node);
+    }
+
+    public interface EdgeVisitor {
+        void visit(Tree<NodeData,EdgeData>.Edge edge);
+    }
+
+    // A non-empty block with its top left corner and side length in tree coordinates
+    public interface BlockVisitor {
+        void visit(int x, int y, int size, int count);
+    }
+
+    // Coarsest block level for edges and drawing, blocks of 2^LEVELS cells on a side
+    public static final int LEVELS = 16;
+
+    // Coarsest level of node counts, where any cell coordinate is in one of 2 by 2 blocks
+    private static final int COUNT_LEVELS = 31;
+
+    private final Tree<NodeData,EdgeData> tree;
+
+    private final int cellSize;
+
+    private final HashMap<Long,ArrayList<Tree<NodeData,EdgeData>.Node>> cells =
+            new HashMap<Long,ArrayList<Tree<NodeData,EdgeData>.Node>>();
+
+    // Cell of every node by id, so nodes are found again even if moved behind our back
+    private long[] cellOf = new long[16];
+
+    // Node counts of the blocks at levels 1 .. COUNT_LEVELS; level 0 are the cells themselves
+    private final CountTable[] blockCounts = new CountTable[COUNT_LEVELS + 1];
+
+    // Edges by block at every level, and the number of edges kept at each level
+    private final ArrayList<HashMap<Long,ArrayList<EdgeEntry>>> edgeBlocks =
+            new ArrayList<HashMap<Long,ArrayList<EdgeEntry>>>();
+    private final int[] edgesAtLevel = new int[LEVELS + 1];
+    private final IdentityHashMap<Tree<NodeData,EdgeData>.Edge,EdgeEntry> edgeEntries =
+            new IdentityHashMap<Tree<NodeData,EdgeData>.Edge,EdgeEntry>();
+
+    // Marks edges already reported by the current edge query
+    private int visitStamp;
+
+    // Range of cell coordinates that have ever been occupied, bounds the searches
+    private int minCellX = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+
+    // cellSize is best set to the usual query radius
+    public NodeGrid(Tree<NodeData,EdgeData> tree, int cellSize) {
+        this.tree = tree;
+        this.cellSize = cellSize;
+        for (int level = 1; level <= COUNT_LEVELS; level++) {
+            blockCounts[level] = new CountTable();
+        }
+        for (int level = 0; level <= LEVELS; level++) {
+            edgeBlocks.add(new HashMap<Long,ArrayList<EdgeEntry>>());
+        }
+        reindex();
+        tree.addListener(this);
+    }
+
+    // Stops following the tree
+    public void detach() {
+        tree.removeListener(this);
+    }
+
+    // Rebuilds the grid from the current positions, after moving many nodes at once
+    public void reindex() {
+        cells.clear();
+        for (int level = 1; level <= COUNT_LEVELS; level++) {
+            blockCounts[level].clear();
+        }
+        for (HashMap<Long,ArrayList<EdgeEntry>> blocks : edgeBlocks) {
+            blocks.clear();
+        }
+        Arrays.fill(edgesAtLevel, 0);
+        edgeEntries.clear();
+        minCellX = minCellY = Integer.MAX_VALUE;
+        maxCellX = maxCellY = Integer.MIN_VALUE;
+        for (Tree<NodeData,EdgeData>.Node node : tree.getNodes()) {
+            insertIntoCell(node);
+        }
+
+        // Each level's counts are the sums of its quarters in the level below
+        CountTable counts = blockCounts[1];
+        for (Map.Entry<Long,ArrayList<Tree<NodeData,EdgeData>.Node>> cell : cells.entrySet()) {
+            long key = cell.getKey();
+            counts.add(key(keyX(key) >> 1, keyY(key) >> 1), cell.getValue().size());
+        }
+        for (int level = 2; level <= COUNT_LEVELS; level++) {
+            CountTable below = blockCounts[level - 1];
+            counts = blockCounts[level];
+            for (int i = 0; i < below.keys.length; i++) {
+                if (below.counts[i] != 0) {
+                    long key = below.keys[i];
+                    counts.add(key(keyX(key) >> 1, keyY(key) >> 1), below.counts[i]);
+                }
+            }
+        }
+
+        for (Tree<NodeData,EdgeData>.Edge edge : tree.getEdges()) {
+            insertEdge(edge);
+        }
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    // Moves the node and updates its cell and the cells of its edges
+    public void move(Tree<NodeData,EdgeData>.Node node, Point position) {
+        remove(node);
+        for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+            removeEdge(edge);
+        }
+        node.getData().setPosition(position);
+        insert(node);
+        for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+            insertEdge(edge);
+        }
+    }
+
+    // Closest node within radius of (x, y), or null if there is none
+    public Tree<NodeData,EdgeData>.Node nodeWithin(int x, int y, double radius) {
+        Tree<NodeData,EdgeData>.Node closest = null;
+        double closestDistance = radius;
+        int fromX = cell(x - radius), toX = cell(x + radius);
+        int fromY = cell(y - radius), toY = cell(y + radius);
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (Tree<NodeData,EdgeData>.Node node : cell) {
+                    double distance = node.getData().getPosition().distance(x, y);
+                    if (distance <= closestDistance) {
+                        closestDistance = distance;
+                        closest = node;
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    // Every node within radius of (x, y)
+    public ArrayList<Tree<NodeData,EdgeData>.Node> nodesWithin(int x, int y, double radius) {
+        ArrayList<Tree<NodeData,EdgeData>.Node> found = new ArrayList<Tree<NodeData,EdgeData>.Node>();
+        int fromX = cell(x - radius), toX = cell(x + radius);
+        int fromY = cell(y - radius), toY = cell(y + radius);
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (Tree<NodeData,EdgeData>.Node node : cell) {
+                    if (node.getData().getPosition().distance(x, y) <= radius) {
+                        found.add(node);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /*
+        Closest node to (x, y), or null if the tree is empty. Blocks wait in
+        a queue by their distance to the point; the closest one is opened
+        into its non-empty quarters, or scanned if it is a cell. The search
+        ends when no waiting block is closer than the best node found.
+     */
+    public Tree<NodeData,EdgeData>.Node nearest(int x, int y) {
+        PriorityQueue<Block> queue = new PriorityQueue<Block>();
+        CountTable top = blockCounts[COUNT_LEVELS];
+        for (int i = 0; i < top.keys.length; i++) {
+            if (top.counts[i] != 0) {
+                queue.add(new Block(COUNT_LEVELS, keyX(top.keys[i]), keyY(top.keys[i]), x, y));
+            }
+        }
+
+        Tree<NodeData,EdgeData>.Node closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        while (!queue.isEmpty() && queue.peek().distance < closestDistance) {
+            Block block = queue.poll();
+            if (block.level == 0) {
+                for (Tree<NodeData,EdgeData>.Node node : cells.get(key(block.x, block.y))) {
+                    double distance = node.getData().getPosition().distance(x, y);
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = node;
+                    }
+                }
+                continue;
+            }
+            int level = block.level - 1;
+            for (int bx = 2 * block.x; bx <= 2 * block.x + 1; bx++) {
+                for (int by = 2 * block.y; by <= 2 * block.y + 1; by++) {
+                    boolean occupied = (level == 0) ? cells.containsKey(key(bx, by))
+                            : blockCounts[level].get(key(bx, by)) != 0;
+                    if (occupied) {
+                        queue.add(new Block(level, bx, by, x, y));
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    // Visits the nodes in the cells overlapping the rectangle, which may include a few just outside it
+    public void forEachNode(Rectangle area, NodeVisitor visitor) {
+        int fromX = Math.max(cell(area.x), minCellX), toX = Math.min(cell(area.getMaxX()), maxCellX);
+        int fromY = Math.max(cell(area.y), minCellY), toY = Math.min(cell(area.getMaxY()), maxCellY);
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    visitor.visit(cell.get(i));
+                }
+            }
+        }
+    }
+
+    // Visits every edge whose bounding box meets a block overlapping the rectangle, each once
+    public void forEachEdge(Rectangle area, EdgeVisitor visitor) {
+        int stamp = ++visitStamp;
+        int fromX = Math.max(cell(area.x), minCellX), toX = Math.min(cell(area.getMaxX()), maxCellX);
+        int fromY = Math.max(cell(area.y), minCellY), toY = Math.min(cell(area.getMaxY()), maxCellY);
+        for (int level = 0; level <= LEVELS; level++) {
+            if (edgesAtLevel[level] == 0) {
+                continue;
+            }
+            HashMap<Long,ArrayList<EdgeEntry>> blocks = edgeBlocks.get(level);
+            for (int bx = fromX >> level; bx <= toX >> level; bx++) {
+                for (int by = fromY >> level; by <= toY >> level; by++) {
+                    ArrayList<EdgeEntry> block = blocks.get(key(bx, by));
+                    if (block == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < block.size(); i++) {
+                        EdgeEntry entry = block.get(i);
+                        if (entry.stamp != stamp) {
+                            entry.stamp = stamp;
+                            visitor.visit(entry.edge);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Visits the non-empty blocks of the given level overlapping the rectangle
+    public void forEachBlock(int level, Rectangle area, BlockVisitor visitor) {
+        int fromX = Math.max(cell(area.x), minCellX) >> level, toX = Math.min(cell(area.getMaxX()), maxCellX) >> level;
+        int fromY = Math.max(cell(area.y), minCellY) >> level, toY = Math.min(cell(area.getMaxY()), maxCellY) >> level;
+        int size = cellSize << level;
+        for (int bx = fromX; bx <= toX; bx++) {
+            for (int by = fromY; by <= toY; by++) {
+                int count;
+                if (level == 0) {
+                    ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key(bx, by));
+                    count = (cell == null) ? 0 : cell.size();
+                } else {
+                    count = blockCounts[level].get(key(bx, by));
+                }
+                if (count > 0) {
+                    visitor.visit(bx * size, by * size, size, count);
+                }
+            }
+        }
+    }
+
+    public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+        insert(node);
+    }
+
+    public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+        insertEdge(edge);
+    }
+
+    public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+        removeEdge(edge);
+    }
+
+    public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+        // Edges are indexed by their endpoints only
+    }
+
+    public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+        remove(node);
+    }
+
+    public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+        cellOf[node.getId()] = cellOf[oldId];
+    }
+
+    private void insert(Tree<NodeData,EdgeData>.Node node) {
+        insertIntoCell(node);
+        long key = cellOf[node.getId()];
+        addToBlocks(keyX(key), keyY(key), 1);
+    }
+
+    // Puts the node in its cell without counting it in the blocks
+    private void insertIntoCell(Tree<NodeData,EdgeData>.Node node) {
+        Point position = node.getData().getPosition();
+        int cx = cell(position.x), cy = cell(position.y);
+        long key = key(cx, cy);
+        ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Tree<NodeData,EdgeData>.Node>(4);
+            cells.put(key, cell);
+        }
+        cell.add(node);
+
+        if (node.getId() >= cellOf.length) {
+            cellOf = Arrays.copyOf(cellOf, Math.max(node.getId() + 1, 2 * cellOf.length));
+        }
+        cellOf[node.getId()] = key;
+        minCellX = Math.min(minCellX, cx);
+        maxCellX = Math.max(maxCellX, cx);
+        minCellY = Math.min(minCellY, cy);
+        maxCellY = Math.max(maxCellY, cy);
+    }
+
+    private void remove(Tree<NodeData,EdgeData>.Node node) {
+        long key = cellOf[node.getId()];
+        ArrayList<Tree<NodeData,EdgeData>.Node> cell = cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        // Swap with the last entry, order within a cell doesn't matter
+        int i = cell.indexOf(node);
+        if (i < 0) {
+            return;
+        }
+        cell.set(i, cell.get(cell.size() - 1));
+        cell.remove(cell.size() - 1);
+        if (cell.isEmpty()) {
+            cells.remove(key);
+        }
+        addToBlocks(keyX(key), keyY(key), -1);
+    }
+
+    private void addToBlocks(int cx, int cy, int delta) {
+        for (int level = 1; level <= COUNT_LEVELS; level++) {
+            blockCounts[level].add(key(cx >> level, cy >> level), delta);
+        }
+    }
+
+    private void insertEdge(Tree<NodeData,EdgeData>.Edge edge) {
+        Point a = edge.getNode().getData().getPosition();
+        Point b = edge.getOtherNode(edge.getNode()).getData().getPosition();
+        int fromX = cell(Math.min(a.x, b.x)), toX = cell(Math.max(a.x, b.x));
+        int fromY = cell(Math.min(a.y, b.y)), toY = cell(Math.max(a.y, b.y));
+        int level = 0;
+        while (level < LEVELS && ((toX >> level) - (fromX >> level) > 1 || (toY >> level) - (fromY >> level) > 1)) {
+            level++;
+        }
+        EdgeEntry entry = new EdgeEntry(edge, level, fromX >> level, fromY >> level, toX >> level, toY >> level);
+        edgeEntries.put(edge, entry);
+        edgesAtLevel[level]++;
+
+        HashMap<Long,ArrayList<EdgeEntry>> blocks = edgeBlocks.get(level);
+        for (int bx = entry.fromX; bx <= entry.toX; bx++) {
+            for (int by = entry.fromY; by <= entry.toY; by++) {
+                long key = key(bx, by);
+                ArrayList<EdgeEntry> block = blocks.get(key);
+                if (block == null) {
+                    block = new ArrayList<EdgeEntry>(4);
+                    blocks.put(key, block);
+                }
+                block.add(entry);
+            }
+        }
+    }
+
+    private void removeEdge(Tree<NodeData,EdgeData>.Edge edge) {
+        EdgeEntry entry = edgeEntries.remove(edge);
+        if (entry == null) {
+            return;
+        }
+        edgesAtLevel[entry.level]--;
+        HashMap<Long,ArrayList<EdgeEntry>> blocks = edgeBlocks.get(entry.level);
+        for (int bx = entry.fromX; bx <= entry.toX; bx++) {
+            for (int by = entry.fromY; by <= entry.toY; by++) {
+                long key = key(bx, by);
+                ArrayList<EdgeEntry> block = blocks.get(key);
+                if (block == null) {
+                    continue;
+                }
+                int i = block.indexOf(entry);
+                if (i >= 0) {
+                    block.set(i, block.get(block.size() - 1));
+                    block.remove(block.size() - 1);
+                }
+                if (block.isEmpty()) {
+                    blocks.remove(key);
+                }
+            }
+        }
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /*
+        cx in the high half, cy mixed with cx in the low half. Long.hashCode
+        xors the halves, which for plain (cx, cy) would give cx ^ cy and
+        pile neighbouring cells into the same buckets.
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | ((cy ^ cx * 0x9E3779B9) & 0xffffffffL);
+    }
+
+    private static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int keyY(long key) {
+        return (int) key ^ keyX(key) * 0x9E3779B9;
+    }
+
+    // A block waiting in a nearest query, with its distance to the query point
+    private class Block implements Comparable<Block> {
+        final int level;
+        final int x, y;
+        final double distance;
+
+        Block(int level, int x, int y, int px, int py) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            double size = (double) cellSize * (1L << level);
+            double left = x * size, top = y * size;
+            double dx = Math.max(0, Math.max(left - px, px - (left + size)));
+            double dy = Math.max(0, Math.max(top - py, py - (top + size)));
+            distance = Math.sqrt(dx * dx + dy * dy);
+        }
+
+        public int compareTo(Block other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    /*
+        Block key to node count, with linear probing in plain arrays so
+        updates neither box keys nor allocate entries. Only non-empty blocks
+        are kept, and a count of 0 marks a free slot. Removals shift the
+        following entries back instead of leaving tombstones.
+     */
+    private static class CountTable {
+        long[] keys = new long[16];
+        int[] counts = new int[16];
+        int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); counts[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return counts[i];
+                }
+            }
+            return 0;
+        }
+
+        void add(long key, int delta) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (counts[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (counts[i] == 0) {
+                if (delta <= 0) {
+                    return;
+                }
+                keys[i] = key;
+                counts[i] = delta;
+                if (2 * ++size > keys.length) {
+                    grow();
+                }
+                return;
+            }
+            counts[i] += delta;
+            if (counts[i] == 0) {
+                size--;
+                shiftBack(i);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            size = 0;
+        }
+
+        // Refills the free slot with later entries of its probe run that may move there
+        private void shiftBack(int free) {
+            int mask = keys.length - 1;
+            for (int i = (free + 1) & mask; counts[i] != 0; i = (i + 1) & mask) {
+                int home = slot(keys[i], mask);
+                if (((i - home) & mask) >= ((i - free) & mask)) {
+                    keys[free] = keys[i];
+                    counts[free] = counts[i];
+                    counts[i] = 0;
+                    free = i;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[2 * oldKeys.length];
+            counts = new int[2 * oldCounts.length];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldCounts[j] != 0) {
+                    int i = slot(oldKeys[j], mask);
+                    while (counts[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+
+    // An edge with the level and range of blocks its bounding box covers
+    private static class EdgeEntry {
+        final Tree<NodeData,EdgeData>.Edge edge;
+        final int level;
+        final int fromX, fromY, toX, toY;
+        int stamp;
+
+        EdgeEntry(Tree<NodeData,EdgeData>.Edge edge, int level, int fromX, int fromY, int toX, int toY) {
+            this.edge = edge;
+            this.level = level;
+            this.fromX = fromX;
+            this.fromY = fromY;
+            this.toX = toX;
+            this.toY = toY;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+import java.util.*;
+
+/*
+    Counts or lists the vertex pairs whose weighted path distance is within
+    a bound, using a full centroid decomposition of every component.
+
+    Every pair's path passes through exactly one centroid at which the two
+    nodes fall into different branches (or one of them is the centroid).
+    For each centroid the branches of its component are kept sorted by
+    distance, and merged into one sorted list, both built once in the
+    constructor since neither depends on the bound. A query counts pairs
+    with a two-pointer pass over each merged list and subtracts the pairs
+    that lie inside a single branch. That is O(n log n) per query, after
+    O(n log^2 n) to build, with only primitive arrays. In a forest, two
+    nodes of different components share no centroid and no path, so such a
+    pair is never within the bound.
+ */
+public class PairDistanceCounter {
+
+    // Receives the pairs found by forEachWithin
+    public interface PairConsumer {
+        void accept(int u, int v, double distance);
+    }
+
+    private final int n;
+
+    // Component of centroid c, grouped by branch: member[memberStart[c] .. memberStart[c+1])
+    private final int[] memberStart;
+    private final int[] memberNode;
+    private final double[] memberDistance;
+
+    // Branch boundaries of centroid c: branchBound[branchStart[c] .. branchStart[c+1]] are member positions
+    private final int[] branchStart;
+    private final int[] branchBound;
+
+    // The component of c merged across branches and sorted by distance, at the same positions as its members
+    private final double[] sortedDistance;
+    private final int[] sortedNode;
+    private final int[] sortedBranch;
+
+
+    public PairDistanceCounter(Tree<NodeData,EdgeData> tree) {
+        this(CompactTree.fromTree(tree));
+    }
+
+    public PairDistanceCounter(CompactTree tree) {
+        n = tree.numNodes();
+        Decomposition decomposition = new CentroidDecomposer(0).decomposeForest(tree);
+
+        int[] componentSize = new int[n];
+        int[] numBranches = new int[n];
+        for (int v = 0; v < n; v++) {
+            if (decomposition.getDepth(v) < 0) {
+                continue;
+            }
+            for (int c = v; c >= 0; c = decomposition.getParent(c)) {
+                componentSize[c]++;
+            }
+            // The centroid is a branch of its own, plus one per child centroid
+            numBranches[v]++;
+            if (decomposition.getParent(v) >= 0) {
+                numBranches[decomposition.getParent(v)]++;
+            }
+        }
+
+        memberStart = new int[n + 1];
+        branchStart = new int[n + 1];
+        for (int c = 0; c < n; c++) {
+            memberStart[c + 1] = memberStart[c] + componentSize[c];
+            branchStart[c + 1] = branchStart[c] + numBranches[c] + 1;
+        }
+        memberNode = new int[memberStart[n]];
+        memberDistance = new double[memberStart[n]];
+        branchBound = new int[branchStart[n]];
+
+        fillBranches(tree, decomposition);
+
+        int largest = 0;
+        int mostBranches = 0;
+        for (int c = 0; c < n; c++) {
+            largest = Math.max(largest, componentSize[c]);
+            mostBranches = Math.max(mostBranches, numBranches[c]);
+        }
+        sortedDistance = new double[memberStart[n]];
+        sortedNode = new int[memberStart[n]];
+        sortedBranch = new int[memberStart[n]];
+        mergeBranches(largest, mostBranches);
+    }
+
+    // Walks each centroid's component one branch at a time and sorts every branch
+    private void fillBranches(CompactTree tree, Decomposition decomposition) {
+        int[] offsets = tree.getOffsets();
+        int[] neighbors = tree.getNeighbors();
+        double[] weights = tree.getWeights();
+
+        int[] stack = new int[n];
+        int[] from = new int[n];
+        double[] distance = new double[n];
+
+        for (int c = 0; c < n; c++) {
+            int level = decomposition.getDepth(c);
+            if (level < 0) {
+                continue;
+            }
+            int next = memberStart[c];
+            int bound = branchStart[c];
+
+            // The centroid alone is the first branch
+            branchBound[bound++] = next;
+            memberNode[next] = c;
+            memberDistance[next] = 0.0;
+            next++;
+
+            for (int e = offsets[c]; e < offsets[c + 1]; e++) {
+                if (decomposition.getDepth(neighbors[e]) <= level) {
+                    continue;
+                }
+                branchBound[bound++] = next;
+                int top = 0;
+                stack[top] = neighbors[e];
+                from[top] = c;
+                distance[top] = weights[e];
+                top++;
+
+                while (top > 0) {
+                    top--;
+                    int v = stack[top];
+                    int parent = from[top];
+                    double d = distance[top];
+                    memberNode[next] = v;
+                    memberDistance[next] = d;
+                    next++;
+
+                    for (int f = offsets[v]; f < offsets[v + 1]; f++) {
+                        int neighbor = neighbors[f];
+                        if (neighbor != parent && decomposition.getDepth(neighbor) > level) {
+                            stack[top] = neighbor;
+                            from[top] = v;
+                            distance[top] = d + weights[f];
+                            top++;
+                        }
+                    }
+                }
+                Sorting.sortByKey(memberDistance, memberNode, branchBound[bound - 1], next);
+            }
+            branchBound[bound] = next;
+        }
+    }
+
+    public int numNodes() {
+        return n;
+    }
+
+    // Number of unordered pairs u != v with dist(u, v) <= k
+    public long countWithin(double k) {
+        return count(k, false);
+    }
+
+    // Number of unordered pairs u != v with dist(u, v) < k
+    public long countBelow(double k) {
+        return count(k, true);
+    }
+
+    // Number of unordered pairs whose distance is k, give or take tolerance for rounding
+    public long countExactly(double k, double tolerance) {
+        return countWithin(k + tolerance) - countBelow(k - tolerance);
+    }
+
+    private long count(double k, boolean strict) {
+        long total = 0;
+        for (int c = 0; c < n; c++) {
+            int size = memberStart[c + 1] - memberStart[c];
+            if (size < 2) {
+                continue;
+            }
+            total += countPairs(sortedDistance, memberStart[c], memberStart[c + 1], k, strict);
+            // Pairs inside one branch don't pass through c
+            for (int b = branchStart[c]; b < branchStart[c + 1] - 1; b++) {
+                total -= countPairs(memberDistance, branchBound[b], branchBound[b + 1], k, strict);
+            }
+        }
+        return total;
+    }
+
+    // Pairs i < j in the sorted range with a[i] + a[j] <= k (or < k), by two pointers
+    private static long countPairs(double[] a, int from, int to, double k, boolean strict) {
+        long pairs = 0;
+        int i = from, j = to - 1;
+        while (i < j) {
+            double sum = a[i] + a[j];
+            if (strict ? sum < k : sum <= k) {
+                pairs += j - i;
+                i++;
+            } else {
+                j--;
+            }
+        }
+        return pairs;
+    }
+
+    /*
+        Hands every pair with dist(u, v) <= k to the consumer, once. Costs the
+        count plus, per centroid, a scan over the candidates of each node.
+     */
+    public void forEachWithin(double k, PairConsumer consumer) {
+        for (int c = 0; c < n; c++) {
+            int size = memberStart[c + 1] - memberStart[c];
+            if (size < 2) {
+                continue;
+            }
+            int end = memberStart[c + 1];
+            for (int i = memberStart[c]; i < end; i++) {
+                double limit = k - sortedDistance[i];
+                // The merged list is sorted, so only the entries after i can be new partners
+                for (int j = i + 1; j < end && sortedDistance[j] <= limit; j++) {
+                    if (sortedBranch[j] != sortedBranch[i]) {
+                        consumer.accept(sortedNode[i], sortedNode[j], sortedDistance[i] + sortedDistance[j]);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+        Merges the sorted branches of every centroid bottom-up, through two
+        buffers as large as the biggest component, and stores the result in
+        the sorted arrays.
+     */
+    private void mergeBranches(int largest, int mostBranches) {
+        double[] mergeDistance = new double[largest];
+        int[] mergeNode = new int[largest];
+        int[] mergeBranch = new int[largest];
+        double[] spareDistance = new double[largest];
+        int[] spareNode = new int[largest];
+        int[] spareBranch = new int[largest];
+
+        // Run r starts at bounds[r]; merged pairs of runs keep every other bound
+        int[] bounds = new int[mostBranches + 1];
+
+        for (int c = 0; c < n; c++) {
+            int base = memberStart[c];
+            int size = memberStart[c + 1] - base;
+            if (size == 0) {
+                continue;
+            }
+            int firstBranch = branchStart[c];
+            int runs = branchStart[c + 1] - firstBranch - 1;
+
+            System.arraycopy(memberDistance, base, mergeDistance, 0, size);
+            System.arraycopy(memberNode, base, mergeNode, 0, size);
+            for (int b = 0; b < runs; b++) {
+                for (int p = branchBound[firstBranch + b]; p < branchBound[firstBranch + b + 1]; p++) {
+                    mergeBranch[p - base] = b;
+                }
+            }
+            for (int b = 0; b <= runs; b++) {
+                bounds[b] = branchBound[firstBranch + b] - base;
+            }
+
+            while (runs > 1) {
+                int merged = 0;
+                for (int r = 0; r < runs; r += 2) {
+                    int lo = bounds[r];
+                    int mid = bounds[Math.min(r + 1, runs)];
+                    int hi = bounds[Math.min(r + 2, runs)];
+                    // Merges [lo, mid) and [mid, hi) into the spare buffers
+                    int i = lo, j = mid;
+                    for (int out = lo; out < hi; out++) {
+                        int take = (j >= hi || (i < mid && mergeDistance[i] <= mergeDistance[j])) ? i++ : j++;
+                        spareDistance[out] = mergeDistance[take];
+                        spareNode[out] = mergeNode[take];
+                        spareBranch[out] = mergeBranch[take];
+                    }
+                    bounds[merged++] = lo;
+                }
+                bounds[merged] = size;
+                runs = merged;
+
+                double[] distance = mergeDistance;
+                mergeDistance = spareDistance;
+                spareDistance = distance;
+                int[] node = mergeNode;
+                mergeNode = spareNode;
+                spareNode = node;
+                int[] branch = mergeBranch;
+                mergeBranch = spareBranch;
+                spareBranch = branch;
+            }
+
+            System.arraycopy(mergeDistance, 0, sortedDistance, base, size);
+            System.arraycopy(mergeNode, 0, sortedNode, base, size);
+            System.arraycopy(mergeBranch, 0, sortedBranch, base, size);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.awt.*;
+
+/*
+    Colors shared by every node and edge, so recoloring the tree doesn't
+    allocate a Color per element.
+ */
+public class Palette {
+
+    public static final Color NODE = new Color(58, 5, 94);
+
+    public static final Color NODE_TEXT = Color.white;
+
+    public static final Color EDGE = new Color(76, 2, 4);
+
+    public static final Color CENTROID = Color.BLUE;
+
+    public static final Color CENTROID_EDGE = Color.RED;
+
+    // Neighbors of the node being processed, and that node itself
+    public static final Color PREPROCESSING = new Color(173, 216, 230);
+
+    public static final Color PROCESSING = new Color(255, 165, 0);
+
+    // Blob shades for zoomed out views, darker for more nodes
+    private static final Color[] BLOBS = new Color[8];
+
+    static {
+        for (int i = 0; i < BLOBS.length; i++) {
+            BLOBS[i] = new Color(NODE.getRed(), NODE.getGreen(), NODE.getBlue(), 64 + i * 191 / (BLOBS.length - 1));
+        }
+    }
+
+    private Palette() {
+    }
+
+    // Shade for a blob standing for count nodes, one step per power of four
+    public static Color blob(int count) {
+        int step = 0;
+        while (count > 1 && step < BLOBS.length - 1) {
+            count >>= 2;
+            step++;
+        }
+        return BLOBS[step];
+    }
+}
@@ -0,0 +1,340 @@
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Centroid decomposition that runs on a ForkJoinPool.
+
+    Once a centroid is removed its components are independent, so each one
+    becomes its own task. Components are disjoint, which lets every task
+    share the node-indexed arrays. The traversal stacks are shared as well:
+    a task works in its own slice of them, as long as its component, and
+    hands its children consecutive slices of it. So nothing is kept per
+    thread, and the stacks go away with the call. Components of at most
+    threshold nodes are finished sequentially inside a single task.
+
+    The result is identical to CentroidDecomposer's. Each task records the
+    centroid it found against the CSR slot of the edge it came through, and
+    the preorder of the centroid tree is rebuilt from those slots at the end.
+
+    decomposeForest starts every connected component at once. Components
+    too small to split are batched into shared tasks, so a forest of many
+    tiny trees doesn't become one task per tree.
+ */
+public class ParallelCentroidDecomposer {
+
+    // Components of at most this many nodes are not split into further tasks
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+    private final ForkJoinPool pool;
+
+    private final int threshold;
+
+    // Components of this size or smaller are left out, as in CentroidDecomposer
+    private final int smallComponent;
+
+    private DecompositionTrace trace = DecompositionTrace.NONE;
+
+
+    public ParallelCentroidDecomposer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public ParallelCentroidDecomposer(ForkJoinPool pool, int threshold) {
+        this(pool, threshold, CentroidDecomposer.SMALL_COMPONENT);
+    }
+
+    public ParallelCentroidDecomposer(ForkJoinPool pool, int threshold, int smallComponent) {
+        this.pool = pool;
+        this.threshold = threshold;
+        this.smallComponent = smallComponent;
+    }
+
+    // The sink is called from the pool's threads
+    public void setTrace(DecompositionTrace trace) {
+        this.trace = trace;
+    }
+
+    public Decomposition decompose(Tree<NodeData,EdgeData> tree) {
+        return decompose(CompactTree.fromTree(tree));
+    }
+
+    public Decomposition decompose(CompactTree tree) {
+        Job job = new Job(tree, new int[] {0});
+        if (tree.numNodes() > 0) {
+            // Start from the first node, as the sequential engine does; its slice is all n entries
+            pool.invoke(job.new ComponentTask(0, Decomposition.NO_PARENT, job.topSlot(0), -1, 0));
+        }
+        return job.result();
+    }
+
+    public Decomposition decomposeForest(Tree<NodeData,EdgeData> tree) {
+        return decomposeForest(CompactTree.fromTree(tree));
+    }
+
+    // Decomposes every component, each starting from its lowest node id, all on the pool
+    public Decomposition decomposeForest(CompactTree tree) {
+        int n = tree.numNodes();
+        int[] first = new int[n];
+        int[] size = new int[n];
+        int numComponents = CentroidDecomposer.findComponents(tree.getOffsetColumn(), tree.getNeighborColumn(),
+                first, size, new int[n], new int[n]);
+        final Job job = new Job(tree, Arrays.copyOf(first, numComponents));
+
+        // Components take consecutive slices of the stacks
+        final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        int base = 0;
+        int batchStart = 0;
+        int batchBase = 0;
+        int batchSize = 0;
+        for (int c = 0; c < numComponents; c++) {
+            if (size[c] > threshold) {
+                tasks.add(job.new ComponentTask(first[c], Decomposition.NO_PARENT, job.topSlot(c), size[c], base));
+                base += size[c];
+                continue;
+            }
+            if (batchSize == 0) {
+                batchStart = c;
+                batchBase = base;
+            }
+            batchSize += size[c];
+            base += size[c];
+            // A batch ends before the next large component, so it covers a run of small ones
+            if (batchSize >= threshold || c + 1 == numComponents || size[c + 1] > threshold) {
+                tasks.add(job.new BatchTask(batchStart, c + 1, size, batchBase));
+                batchSize = 0;
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return job.result();
+    }
+
+    // State shared by all tasks of one decompose call
+    private class Job {
+        final IntBuffer offsets;
+        final IntBuffer neighbors;
+        final int n;
+
+        final boolean[] removed;
+        final int[] dfsParent;
+        final int[] subtreeSize;
+
+        final int[] parent;
+        final int[] depth;
+
+        // Centroid found in the component entered through each CSR slot, or -1
+        final int[] slotChild;
+
+        // First node and top centroid (or -1) of every connected component started
+        final int[] componentStart;
+        final int[] rootCentroid;
+
+        // Traversal stacks, sliced among the tasks by component
+        final int[] visitOrder;
+        final int[] stack;
+        final int[] pendingRoot;
+        final int[] pendingParent;
+        final int[] pendingSlot;
+
+        final boolean traceSteps = trace.getLevel().compareTo(DecompositionTrace.Level.STEPS) >= 0;
+        final boolean traceDetail = trace.getLevel().compareTo(DecompositionTrace.Level.DETAIL) >= 0;
+
+        Job(CompactTree tree, int[] componentStart) {
+            this.componentStart = componentStart;
+            rootCentroid = new int[componentStart.length];
+            Arrays.fill(rootCentroid, -1);
+            offsets = tree.getOffsetColumn();
+            neighbors = tree.getNeighborColumn();
+            n = tree.numNodes();
+            removed = new boolean[n];
+            dfsParent = new int[n];
+            subtreeSize = new int[n];
+            parent = new int[n];
+            depth = new int[n];
+            slotChild = new int[neighbors.limit()];
+            visitOrder = new int[n];
+            stack = new int[n];
+            pendingRoot = new int[n];
+            pendingParent = new int[n];
+            pendingSlot = new int[n];
+            Arrays.fill(parent, Decomposition.NOT_A_CENTROID);
+            Arrays.fill(depth, -1);
+            Arrays.fill(slotChild, -1);
+        }
+
+        // Slot value of the top component of connected component c; CSR slots are >= 0
+        int topSlot(int c) {
+            return -1 - c;
+        }
+
+        // Marks centroid as chosen for the component entered through slot
+        void place(int centroid, int parentCentroid, int slot, int componentSize) {
+            if (traceSteps) {
+                trace.centroidChosen(centroid, parentCentroid, componentSize);
+            }
+            removed[centroid] = true;
+            parent[centroid] = parentCentroid;
+            depth[centroid] = (parentCentroid < 0) ? 0 : depth[parentCentroid] + 1;
+            if (slot >= 0) {
+                slotChild[slot] = centroid;
+            } else {
+                rootCentroid[-1 - slot] = centroid;
+            }
+        }
+
+        // Rebuilds the preorder the sequential engine would have produced
+        Decomposition result() {
+            int[] order = new int[n];
+            int numCentroids = 0;
+            int[] stack = new int[n];
+            for (int c = 0; c < rootCentroid.length; c++) {
+                if (rootCentroid[c] < 0) {
+                    continue;
+                }
+                int top = 0;
+                stack[top++] = rootCentroid[c];
+                while (top > 0) {
+                    int centroid = stack[--top];
+                    order[numCentroids++] = centroid;
+                    for (int e = offsets.get(centroid + 1) - 1; e >= offsets.get(centroid); e--) {
+                        if (slotChild[e] >= 0) {
+                            stack[top++] = slotChild[e];
+                        }
+                    }
+                }
+            }
+            return new Decomposition(parent, depth, order, numCentroids);
+        }
+
+        // Decomposes the small connected components [from, to) one after another, from slice base on
+        @SuppressWarnings("serial")
+        class BatchTask extends RecursiveAction {
+            private final int from;
+            private final int to;
+            private final int[] size;
+            private final int base;
+
+            BatchTask(int from, int to, int[] size, int base) {
+                this.from = from;
+                this.to = to;
+                this.size = size;
+                this.base = base;
+            }
+
+            protected void compute() {
+                int componentBase = base;
+                for (int c = from; c < to; c++) {
+                    new ComponentTask(componentStart[c], Decomposition.NO_PARENT, topSlot(c), size[c],
+                            componentBase).compute();
+                    componentBase += size[c];
+                }
+            }
+        }
+
+        @SuppressWarnings("serial")
+        class ComponentTask extends RecursiveAction {
+            private final int root;
+            private final int parentCentroid;
+            private final int slot;
+
+            // Number of nodes in the component, -1 if not known yet
+            private final int size;
+
+            // Start of the task's slice of the stacks, which runs to the end if size is not known
+            private final int base;
+
+            ComponentTask(int root, int parentCentroid, int slot, int size, int base) {
+                this.root = root;
+                this.parentCentroid = parentCentroid;
+                this.slot = slot;
+                this.size = size;
+                this.base = base;
+            }
+
+            protected void compute() {
+                if (size >= 0 && size <= threshold) {
+                    decomposeSequential();
+                    return;
+                }
+
+                int componentSize = CentroidDecomposer.calculateSubtreeSizes(offsets, neighbors, removed,
+                        dfsParent, subtreeSize, visitOrder, stack, base, root);
+                if (traceDetail) {
+                    trace.subtreeSizes(root, componentSize);
+                }
+                if (componentSize <= smallComponent) {
+                    return;
+                }
+
+                int centroid = CentroidDecomposer.findCentroid(offsets, neighbors, removed,
+                        dfsParent, subtreeSize, root, componentSize);
+                place(centroid, parentCentroid, slot, componentSize);
+
+                // The sizes of the remaining components fall out of the size pass
+                ArrayList<ComponentTask> tasks = new ArrayList<ComponentTask>();
+                int childBase = base;
+                for (int e = offsets.get(centroid); e < offsets.get(centroid + 1); e++) {
+                    int neighbor = neighbors.get(e);
+                    if (!removed[neighbor]) {
+                        int childSize = (dfsParent[neighbor] == centroid)
+                                ? subtreeSize[neighbor]
+                                : componentSize - subtreeSize[centroid];
+                        tasks.add(new ComponentTask(neighbor, centroid, e, childSize, childBase));
+                        childBase += childSize;
+                    }
+                }
+                if (traceSteps) {
+                    trace.componentsSplit(centroid, tasks.size());
+                }
+                invokeAll(tasks);
+            }
+
+            // Same loop as CentroidDecomposer.decompose, limited to this component
+            private void decomposeSequential() {
+                int pending = base;
+                pendingRoot[pending] = root;
+                pendingParent[pending] = parentCentroid;
+                pendingSlot[pending] = slot;
+                pending++;
+
+                while (pending > base) {
+                    pending--;
+                    int componentRoot = pendingRoot[pending];
+                    int componentParent = pendingParent[pending];
+                    int componentSlot = pendingSlot[pending];
+
+                    int componentSize = CentroidDecomposer.calculateSubtreeSizes(offsets, neighbors, removed,
+                            dfsParent, subtreeSize, visitOrder, stack, base, componentRoot);
+                    if (traceDetail) {
+                        trace.subtreeSizes(componentRoot, componentSize);
+                    }
+                    if (componentSize <= smallComponent) {
+                        continue;
+                    }
+
+                    int centroid = CentroidDecomposer.findCentroid(offsets, neighbors, removed,
+                            dfsParent, subtreeSize, componentRoot, componentSize);
+                    place(centroid, componentParent, componentSlot, componentSize);
+
+                    int split = pending;
+                    for (int e = offsets.get(centroid + 1) - 1; e >= offsets.get(centroid); e--) {
+                        int neighbor = neighbors.get(e);
+                        if (!removed[neighbor]) {
+                            pendingRoot[pending] = neighbor;
+                            pendingParent[pending] = centroid;
+                            pendingSlot[pending] = e;
+                            pending++;
+                        }
+                    }
+                    if (traceSteps) {
+                        trace.componentsSplit(centroid, pending - split);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.*;
+
+/*
+    DecompositionTrace that keeps the last `capacity` events in primitive
+    arrays, overwriting the oldest ones. Recording allocates nothing, so it
+    can stay plugged in while reproducing a problem on large trees.
+ */
+public class RingBufferTrace implements DecompositionTrace {
+
+    private static final byte SUBTREE_SIZES = 0;
+    private static final byte CENTROID_CHOSEN = 1;
+    private static final byte COMPONENTS_SPLIT = 2;
+
+    private final Level level;
+
+    private final byte[] type;
+    private final int[] first;
+    private final int[] second;
+    private final int[] third;
+
+    // Total events recorded; the newest is at (count - 1) % capacity
+    private long count;
+
+
+    public RingBufferTrace(int capacity, Level level) {
+        this.level = level;
+        type = new byte[capacity];
+        first = new int[capacity];
+        second = new int[capacity];
+        third = new int[capacity];
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public synchronized void subtreeSizes(int root, int componentSize) {
+        record(SUBTREE_SIZES, root, componentSize, 0);
+    }
+
+    public synchronized void centroidChosen(int centroid, int parentCentroid, int componentSize) {
+        record(CENTROID_CHOSEN, centroid, parentCentroid, componentSize);
+    }
+
+    public synchronized void componentsSplit(int centroid, int numComponents) {
+        record(COMPONENTS_SPLIT, centroid, numComponents, 0);
+    }
+
+    private void record(byte eventType, int a, int b, int c) {
+        int slot = (int) (count % type.length);
+        type[slot] = eventType;
+        first[slot] = a;
+        second[slot] = b;
+        third[slot] = c;
+        count++;
+    }
+
+    // Number of events seen, including the ones already overwritten
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    // Prints the retained events, oldest first
+    public synchronized void dump(PrintStream out) {
+        long start = Math.max(0, count - type.length);
+        for (long i = start; i < count; i++) {
+            int slot = (int) (i % type.length);
+            switch (type[slot]) {
+                case SUBTREE_SIZES:
+                    out.println("Subtree rooted at: " + first[slot] + ", size: " + second[slot]);
+                    break;
+                case CENTROID_CHOSEN:
+                    out.println("Centroid: " + first[slot] + ", parent: " + second[slot]
+                            + ", component size: " + third[slot]);
+                    break;
+                case COMPONENTS_SPLIT:
+                    out.println("Components after removing " + first[slot] + ": " + second[slot]);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+    Sorts on parallel primitive arrays, so per-centroid work doesn't need
+    boxed lists or comparators.
+ */
+public class Sorting {
+
+    // Ranges this short are finished with insertion sort
+    private static final int INSERTION_THRESHOLD = 24;
+
+    private Sorting() {
+    }
+
+    // Sorts keys[from .. to) ascending and applies the same moves to values
+    public static void sortByKey(double[] keys, int[] values, int from, int to) {
+        while (to - from > INSERTION_THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            // Median of three as the pivot
+            if (keys[mid] < keys[from]) {
+                swap(keys, values, mid, from);
+            }
+            if (keys[to - 1] < keys[from]) {
+                swap(keys, values, to - 1, from);
+            }
+            if (keys[to - 1] < keys[mid]) {
+                swap(keys, values, to - 1, mid);
+            }
+            double pivot = keys[mid];
+
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller half and loop on the larger one, so the depth stays O(log n)
+            if (j - from < to - i) {
+                sortByKey(keys, values, from, j + 1);
+                from = i;
+            } else {
+                sortByKey(keys, values, i, to);
+                to = j + 1;
+            }
+        }
+
+        for (int i = from + 1; i < to; i++) {
+            double key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, int[] values, int a, int b) {
+        double key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        int value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+}
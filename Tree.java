@@ -2,7 +2,14 @@ import java.util.*;
 
 /*
     Class that implements an undirected tree with unweighted vertices
-    and edge lengths
+    and edge lengths.
+
+    Nodes and edges carry dense ids equal to their position in getNodes()
+    and getEdges(). In indexed mode every node keeps a hash map of its
+    neighbors and removals swap the last element into the freed slot, so
+    neighbor checks and removals are O(1) expected, at the cost of
+    reordering the node and edge lists. The default mode keeps insertion
+    order, which the GUI relies on.
  */
 public class Tree<V,E> extends Object {
 
@@ -10,12 +17,77 @@ public class Tree<V,E> extends Object {
 
     private ArrayList<Node> nodes;
 
+    // Hash neighbor lookups and swap-remove instead of keeping list order
+    private final boolean indexed;
+
+    // Components by node id while incremental cycle checking is on, otherwise null
+    private UnionFind components;
+
+    // Set after a removal; union-find can't split sets, so it is rebuilt on the next addEdge
+    private boolean componentsStale;
+
+    // True while cycle checking has been on since the tree was last known to be acyclic
+    private boolean knownAcyclic;
+
+    // Notified of every structural change, in the order the changes happen
+    private ArrayList<Listener<V,E>> listeners = new ArrayList<Listener<V,E>>();
+
+    // Bumped by every structural change and edgeChanged; volatile so other threads can compare it without locking
+    private volatile long version;
+
 
     public Tree() {
+        this(false);
+    }
+
+    public Tree(boolean indexed) {
         edges = new ArrayList<Edge>();
         nodes = new ArrayList<Node>();
+        this.indexed = indexed;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /*
+        Number of structural changes and edgeChanged calls so far. Only the
+        thread editing the tree changes it, and a snapshot taken at version v
+        is still current as long as getVersion() returns v. See TreeSnapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /*
+        Receives structural changes so derived structures can be kept up to
+        date instead of rebuilt. removeNode reports each edge removal first,
+        then the removal of the now isolated node while it still has its id,
+        then every node whose id changed as a result.
+     */
+    public interface Listener<V,E> {
+        void nodeAdded(Tree<V,E>.Node node);
+
+        void edgeAdded(Tree<V,E>.Edge edge);
+
+        // Called once the edge has been detached from both endpoints
+        void edgeRemoved(Tree<V,E>.Edge edge);
+
+        // The edge's data was changed, see Tree.edgeChanged
+        void edgeChanged(Tree<V,E>.Edge edge);
+
+        void nodeRemoved(Tree<V,E>.Node node);
+
+        void nodeMoved(Tree<V,E>.Node node, int oldId);
+    }
+
+    public void addListener(Listener<V,E> listener) {
+        listeners.add(listener);
     }
 
+    public void removeListener(Listener<V,E> listener) {
+        listeners.remove(listener);
+    }
 
 
     // Return all the nodes in the tree
@@ -35,53 +107,246 @@ public class Tree<V,E> extends Object {
         return edges.size();
     }
 
+    public Node getNode(int id) {
+        return nodes.get(id);
+    }
+
+    public Edge getEdge(int id) {
+        return edges.get(id);
+    }
+
     public Node addNode(V data) {
         Node newNode = new Node(data);
+        newNode.id = nodes.size();
         nodes.add(newNode);
+        version++;
+        if (components != null && !componentsStale) {
+            components.add();
+        }
+        for (Listener<V,E> listener : listeners) {
+            listener.nodeAdded(newNode);
+        }
         return newNode;
     }
-    // If the nodes don't already share an edge
+
+    /*
+        Turns incremental cycle checking on or off. While it is on, addEdge
+        rejects (returns null for) any edge whose endpoints are already
+        connected, in near-constant time, so a tree streamed in edge by edge
+        never needs a separate isAcyclic pass. Returns false if the tree
+        already contained a cycle when checking was turned on.
+     */
+    public boolean setCycleCheck(boolean on) {
+        if (!on) {
+            components = null;
+            knownAcyclic = false;
+            return true;
+        }
+        components = new UnionFind(nodes.size());
+        knownAcyclic = rebuildComponents();
+        return knownAcyclic;
+    }
+
+    public boolean isCycleCheck() {
+        return components != null;
+    }
+
+    // Returns false if some existing edge closes a cycle
+    private boolean rebuildComponents() {
+        components.clear(nodes.size());
+        componentsStale = false;
+        boolean acyclic = true;
+        for (Edge edge : edges) {
+            if (!components.union(edge.node1.id, edge.node2.id)) {
+                acyclic = false;
+            }
+        }
+        return acyclic;
+    }
+
+    // If the nodes don't already share an edge (or, with cycle checking on, aren't already connected)
     public Edge addEdge(E data, Node n1, Node n2) {
+        if (components != null) {
+            if (componentsStale) {
+                knownAcyclic = rebuildComponents();
+            }
+            // Neighbors are always connected, so this also rules out duplicate edges
+            if (!components.union(n1.id, n2.id)) {
+                return null;
+            }
+            return createEdge(data, n1, n2);
+        }
         if (!n1.isNeighbor(n2)) {
-            Edge newEdge = new Edge(data, n1, n2);
-            edges.add(newEdge);
-            return newEdge;
+            return createEdge(data, n1, n2);
         } else {
             return null;
         }
     }
 
-    public void removeEdge(Edge edge) {
-        edges.remove(edge);
+    private Edge createEdge(E data, Node n1, Node n2) {
+        Edge newEdge = new Edge(data, n1, n2);
+        newEdge.id = edges.size();
+        edges.add(newEdge);
+        version++;
+        for (Listener<V,E> listener : listeners) {
+            listener.edgeAdded(newEdge);
+        }
+        return newEdge;
     }
+
+    /*
+        Removes the edge from the tree and from both of its endpoints.
+        Returns false, changing nothing, if the edge was already removed:
+        its stale id may belong to another edge by now.
+     */
+    public boolean removeEdge(Edge edge) {
+        if (edge.id >= edges.size() || edges.get(edge.id) != edge) {
+            return false;
+        }
+        componentsStale = true;
+        version++;
+        edge.node1.removeEdge(edge);
+        edge.node2.removeEdge(edge);
+
+        if (indexed) {
+            Edge last = edges.remove(edges.size() - 1);
+            if (last != edge) {
+                edges.set(edge.id, last);
+                last.id = edge.id;
+            }
+        } else {
+            edges.remove(edge.id);
+            renumberEdges(edge.id);
+        }
+        for (Listener<V,E> listener : listeners) {
+            listener.edgeRemoved(edge);
+        }
+        return true;
+    }
+
+    /*
+        Removes the node and its edges. Does nothing if the node was already
+        removed, since its stale id may belong to another node by now.
+     */
     public void removeNode(Node node) {
-        // Create a copy of the edges to avoid concurrent modification
-        ArrayList<Edge> edgesToRemove = new ArrayList<>(node.getEdges());
+        if (node.id >= nodes.size() || nodes.get(node.id) != node) {
+            return;
+        }
+        componentsStale = true;
+        version++;
 
-        // Remove all edges connected to this node
-        for (Edge edge : edgesToRemove) {
-            removeEdge(edge);
+        if (indexed) {
+            // Remove all edges connected to this node, from a copy to avoid concurrent modification
+            for (Edge edge : new ArrayList<Edge>(node.getEdges())) {
+                removeEdge(edge);
+            }
+            for (Listener<V,E> listener : listeners) {
+                listener.nodeRemoved(node);
+            }
+
+            Node last = nodes.remove(nodes.size() - 1);
+            if (last != node) {
+                nodes.set(node.id, last);
+                last.id = node.id;
+                for (Listener<V,E> listener : listeners) {
+                    listener.nodeMoved(last, nodes.size());
+                }
+            }
+        } else {
+            /*
+                Remove the edges from the back of the node's list, which holds
+                them in id order, so each removal only renumbers the edges
+                after it. Each one is reported once it is out of both the
+                endpoints and the edge list, as removeEdge does.
+             */
+            for (int i = node.edges.size() - 1; i >= 0; i--) {
+                Edge edge = node.edges.remove(i);
+                edge.getOtherNode(node).removeEdge(edge);
+                edges.remove(edge.id);
+                renumberEdges(edge.id);
+                for (Listener<V,E> listener : listeners) {
+                    listener.edgeRemoved(edge);
+                }
+            }
+            for (Listener<V,E> listener : listeners) {
+                listener.nodeRemoved(node);
+            }
+
+            nodes.remove(node.id);
+
+            // Keep ids equal to list positions for the nodes after the removed one
+            for (int i = node.id; i < nodes.size(); i++) {
+                nodes.get(i).id = i;
+                for (Listener<V,E> listener : listeners) {
+                    listener.nodeMoved(nodes.get(i), i + 1);
+                }
+            }
         }
+    }
 
-        nodes.remove(node);
+    /*
+        Reports that the data of edge was changed in place, e.g. its distance
+        was set. Callers that change edge data call this afterwards so the
+        version moves on and listeners that depend on the data can catch up.
+     */
+    public void edgeChanged(Edge edge) {
+        version++;
+        for (Listener<V,E> listener : listeners) {
+            listener.edgeChanged(edge);
+        }
+    }
 
+    private void renumberEdges(int from) {
+        for (int i = from; i < edges.size(); i++) {
+            edges.get(i).id = i;
+        }
     }
 
 
+    // True if no component contains a cycle. O(n) with an explicit stack, no recursion.
     public boolean isAcyclic() {
         if (numNodes() <= 1) {
             return true;
         }
+        // Cycle checking has rejected every edge that would have closed a cycle
+        if (components != null && knownAcyclic) {
+            return true;
+        }
+        // A forest on n nodes has at most n - 1 edges
+        if (numEdges() >= numNodes()) {
+            return false;
+        }
 
-        // Tracker for visited nodes
-        ArrayList<Node> visited = new ArrayList<Node>();
+        int n = numNodes();
+        BitSet visited = new BitSet(n);
+        int[] stack = new int[n];
+        // Edge each node was reached through, so it isn't mistaken for a cycle
+        int[] parentEdge = new int[n];
 
         // Iterate through all nodes to handle disconnected graphs
-        for (Node node : getNodes()) {
-            // If the node hasn't been visited, run DFS
-            if (!visited.contains(node)) {
-                if (hasCycle(node, null, visited)) {
-                    return false;
+        for (int start = 0; start < n; start++) {
+            if (visited.get(start)) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = start;
+            parentEdge[start] = -1;
+            visited.set(start);
+
+            while (top > 0) {
+                Node current = nodes.get(stack[--top]);
+                for (Edge edge : current.edges) {
+                    if (edge.id == parentEdge[current.id]) {
+                        continue;
+                    }
+                    // Every node of a forest is reached through exactly one edge
+                    int neighbor = edge.getOtherNode(current).id;
+                    if (visited.get(neighbor)) {
+                        return false;
+                    }
+                    visited.set(neighbor);
+                    parentEdge[neighbor] = edge.id;
+                    stack[top++] = neighbor;
                 }
             }
         }
@@ -89,30 +354,6 @@ public class Tree<V,E> extends Object {
         return true;
     }
 
-    private boolean hasCycle(Node current, Node parent, ArrayList<Node> visited) {
-        visited.add(current);
-
-        for (Edge edge : current.getEdges()) {
-            Node neighbor = edge.getOtherNode(current);
-
-            // Skip the parent node
-            if (neighbor == parent) {
-                continue;
-            }
-
-            // If the neighbor has been visited and is not the parent -> cycle
-            if (visited.contains(neighbor)) {
-                return true;
-            }
-
-            // Recursively explore
-            if (hasCycle(neighbor, current, visited)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
     // Nested edge class that uses EdgeData
     public class Edge {
 
@@ -120,6 +361,13 @@ public class Tree<V,E> extends Object {
         public Node node1;
         private Node node2;
 
+        // Position in the tree's edge list
+        private int id;
+
+        // Positions of this edge in node1's and node2's edge lists (indexed mode only)
+        private int slot1;
+        private int slot2;
+
         public Edge(E data, Node node1, Node node2) {
             this.data = data;
             this.node1 = node1;
@@ -134,6 +382,10 @@ public class Tree<V,E> extends Object {
             return (node == node1) ? node2 : node1;
         }
 
+        public int getId() {
+            return id;
+        }
+
         public boolean equals(Edge edge){
             boolean result = false;
             if (node2 == edge.getOtherNode(node1)){
@@ -157,19 +409,43 @@ public class Tree<V,E> extends Object {
         private V data;
         private ArrayList<Edge> edges;
 
+        // Position of this node in the tree's node list, used to index primitive arrays
+        private int id;
+
+        // Edge to each neighbor, only kept in indexed mode
+        private HashMap<Node,Edge> adjacent;
+
         public Node(V data){
             this.data = data;
             edges = new ArrayList<Edge>();
+            if (indexed) {
+                adjacent = new HashMap<Node,Edge>();
+            }
         }
 
         public void addEdge(Edge edge) {
+            if (indexed) {
+                if (edge.node1 == this) {
+                    edge.slot1 = edges.size();
+                } else {
+                    edge.slot2 = edges.size();
+                }
+                adjacent.put(edge.getOtherNode(this), edge);
+            }
             edges.add(edge);
         }
         public V getData(){
             return data;
         }
 
+        public int getId() {
+            return id;
+        }
+
         public Edge edgeTo(Node neighbor) {
+            if (indexed) {
+                return adjacent.get(neighbor);
+            }
             for (Edge edge : edges) {
                 if (edge.getOtherNode(this) == neighbor) {
                     return edge;
@@ -185,20 +461,34 @@ public class Tree<V,E> extends Object {
         }
 
         public void removeEdge(Edge edge){
-            if (edges.contains(edge)){
+            if (!indexed) {
                 edges.remove(edge);
+                return;
+            }
+            if (adjacent.remove(edge.getOtherNode(this)) != edge) {
+                return;
+            }
+
+            // Move the last edge into the freed slot
+            int slot = (edge.node1 == this) ? edge.slot1 : edge.slot2;
+            Edge last = edges.remove(edges.size() - 1);
+            if (last != edge) {
+                edges.set(slot, last);
+                if (last.node1 == this) {
+                    last.slot1 = slot;
+                } else {
+                    last.slot2 = slot;
+                }
             }
         }
 
         public boolean isNeighbor(Node neighbor){
-            for (Edge edge:edges){
-                for (Edge neighborEdge : neighbor.getEdges()){
-                    if (edge.equals(neighborEdge)){
-                        return true;
-                    }
-                }
+            if (indexed) {
+                return adjacent.containsKey(neighbor);
             }
-            return false;
+            // Only the smaller edge list needs to be scanned
+            Node smaller = (edges.size() <= neighbor.edges.size()) ? this : neighbor;
+            return smaller.edgeTo(smaller == this ? neighbor : this) != null;
         }
 
         public ArrayList<Node> getNeighbors() {
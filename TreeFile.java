@@ -0,0 +1,377 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+    Binary tree file, loaded with FileChannel.map straight into a CompactTree.
+
+    All values are little-endian. The 32 byte header holds
+
+        int  magic      MAGIC ("CTRE")
+        int  version    VERSION
+        int  layout     CSR, EDGE_LIST or PARENT_ARRAY
+        int  reserved   0
+        long numNodes
+        long numEdges
+
+    followed by the columns of the layout, each starting on an 8 byte boundary:
+
+        CSR           int offsets[numNodes + 1], int neighbors[2 numEdges],
+                      double weights[2 numEdges], as in CompactTree
+        EDGE_LIST     int from[numEdges], int to[numEdges], double distance[numEdges]
+        PARENT_ARRAY  int parent[numNodes] (-1 for roots), double distance[numNodes]
+                      (distance to the parent, ignored for roots)
+
+    Every column is mapped on its own and read in place. A CSR file becomes
+    a CompactTree over the mappings with no copy, after one pass that checks
+    offsets and neighbor ids, so loading takes almost no heap; the other
+    layouts are converted into CSR arrays on the heap. A column has to fit
+    in one mapping of up to 2 GB, which allows about 134M edges in a CSR
+    file; bigger files are rejected.
+ */
+public class TreeFile {
+
+    public static final int MAGIC = 0x45525443;
+
+    public static final int VERSION = 1;
+
+    public static final int EDGE_LIST = 0;
+    public static final int PARENT_ARRAY = 1;
+    public static final int CSR = 2;
+
+    private static final int HEADER_SIZE = 32;
+
+    // Chunk size for writing
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private TreeFile() {
+    }
+
+    // True if the file starts with a tree file header
+    public static boolean isTreeFile(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            in.getChannel().read(header, 0);
+            return header.remaining() == 0 && header.getInt(0) == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static CompactTree load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + ": too short for a tree file header");
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + ": not a tree file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(file + ": unsupported version " + header.getInt(4));
+            }
+            int layout = header.getInt(8);
+            long numNodes = header.getLong(16);
+            long numEdges = header.getLong(24);
+            if (numNodes < 0 || numNodes > Integer.MAX_VALUE - 1
+                    || numEdges < 0 || numEdges > Integer.MAX_VALUE / 2) {
+                throw new IOException(file + ": bad node or edge count");
+            }
+            // Largest column of the layout, which has to fit in one mapping
+            long largest;
+            if (layout == CSR) {
+                largest = Math.max(4 * (numNodes + 1), 8 * 2 * numEdges);
+            } else if (layout == EDGE_LIST) {
+                largest = 8 * numEdges;
+            } else {
+                largest = 8 * numNodes;
+            }
+            if (largest > Integer.MAX_VALUE) {
+                throw new IOException(file + ": " + numNodes + " nodes and " + numEdges + " edges are too many to map");
+            }
+            int n = (int) numNodes;
+
+            if (layout == CSR) {
+                int m = (int) numEdges;
+                long neighborStart = align(HEADER_SIZE + 4L * (n + 1));
+                long weightStart = align(neighborStart + 8L * m);
+                checkSize(file, channel, weightStart + 16L * m);
+                IntBuffer offsets = map(channel, HEADER_SIZE, 4L * (n + 1)).asIntBuffer();
+                IntBuffer neighbors = map(channel, neighborStart, 8L * m).asIntBuffer();
+                checkColumns(n, m, offsets, neighbors, file);
+                return new CompactTree(offsets, neighbors, map(channel, weightStart, 16L * m).asDoubleBuffer());
+            } else if (layout == EDGE_LIST) {
+                int m = (int) numEdges;
+                long fromStart = HEADER_SIZE;
+                long toStart = align(fromStart + 4L * m);
+                long distanceStart = align(toStart + 4L * m);
+                checkSize(file, channel, distanceStart + 8L * m);
+                return fromColumns(n, m, null,
+                        map(channel, fromStart, 4L * m).asIntBuffer(),
+                        map(channel, toStart, 4L * m).asIntBuffer(),
+                        map(channel, distanceStart, 8L * m).asDoubleBuffer(), file);
+            } else if (layout == PARENT_ARRAY) {
+                long distanceStart = align(HEADER_SIZE + 4L * n);
+                checkSize(file, channel, distanceStart + 8L * n);
+                return fromColumns(n, (int) numEdges,
+                        map(channel, HEADER_SIZE, 4L * n).asIntBuffer(), null, null,
+                        map(channel, distanceStart, 8L * n).asDoubleBuffer(), file);
+            } else {
+                throw new IOException(file + ": unknown layout " + layout);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Offsets that rise from 0 to 2m and neighbor ids in range, read in place
+    private static void checkColumns(int n, int m, IntBuffer offsets, IntBuffer neighbors, File file)
+            throws IOException {
+        if (offsets.get(0) != 0 || offsets.get(n) != 2 * m) {
+            throw new IOException(file + ": offsets must run from 0 to " + (2 * m));
+        }
+        for (int v = 0; v < n; v++) {
+            int start = offsets.get(v), end = offsets.get(v + 1);
+            if (end < start) {
+                throw new IOException(file + ": offsets fall at node " + v);
+            }
+            for (int e = start; e < end; e++) {
+                int u = neighbors.get(e);
+                if (u < 0 || u >= n || u == v) {
+                    throw new IOException(file + ": bad neighbor " + u + " of node " + v);
+                }
+            }
+        }
+    }
+
+    /*
+        Builds the CSR arrays with a counting pass, reading the mapped columns
+        by index. With a parent column, edge i is (i, parent[i]) and distance
+        is indexed by node; otherwise edges come from the from/to columns.
+     */
+    private static CompactTree fromColumns(int n, int m, IntBuffer parent, IntBuffer from, IntBuffer to,
+                                           DoubleBuffer distance, File file) throws IOException {
+        int rows = (parent != null) ? n : m;
+        int[] offsets = new int[n + 1];
+        int edges = 0;
+        for (int i = 0; i < rows; i++) {
+            int a = (parent != null) ? i : from.get(i);
+            int b = (parent != null) ? parent.get(i) : to.get(i);
+            if (parent != null && b == -1) {
+                continue;
+            }
+            if (a < 0 || a >= n || b < 0 || b >= n || a == b) {
+                throw new IOException(file + ": bad edge " + a + " - " + b + " in row " + i);
+            }
+            offsets[a + 1]++;
+            offsets[b + 1]++;
+            edges++;
+        }
+        if (edges != m) {
+            throw new IOException(file + ": header says " + m + " edges, found " + edges);
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] neighbors = new int[2 * m];
+        double[] weights = new double[2 * m];
+        int[] next = new int[n];
+        System.arraycopy(offsets, 0, next, 0, n);
+        for (int i = 0; i < rows; i++) {
+            int a = (parent != null) ? i : from.get(i);
+            int b = (parent != null) ? parent.get(i) : to.get(i);
+            if (parent != null && b == -1) {
+                continue;
+            }
+            double d = distance.get(i);
+            neighbors[next[a]] = b;
+            weights[next[a]++] = d;
+            neighbors[next[b]] = a;
+            weights[next[b]++] = d;
+        }
+        return new CompactTree(offsets, neighbors, weights, null);
+    }
+
+    // Writes the CSR columns as they are, for loading without a copy
+    public static void writeCsr(CompactTree tree, File file) throws IOException {
+        int n = tree.numNodes();
+        int m = tree.numEdges();
+
+        ColumnWriter out = new ColumnWriter(file);
+        try {
+            out.header(CSR, n, m);
+            for (int v = 0; v <= n; v++) {
+                out.putInt(tree.offset(v));
+            }
+            out.pad();
+            for (int e = 0; e < 2 * m; e++) {
+                out.putInt(tree.neighbor(e));
+            }
+            out.pad();
+            for (int e = 0; e < 2 * m; e++) {
+                out.putDouble(tree.weight(e));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // Writes every edge of the tree once, from its lower endpoint
+    public static void writeEdges(CompactTree tree, File file) throws IOException {
+        int n = tree.numNodes();
+        int m = tree.numEdges();
+        int[] offsets = tree.getOffsets();
+        int[] neighbors = tree.getNeighbors();
+        double[] weights = tree.getWeights();
+
+        ColumnWriter out = new ColumnWriter(file);
+        try {
+            out.header(EDGE_LIST, n, m);
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (v < neighbors[e]) {
+                        out.putInt(v);
+                    }
+                }
+            }
+            out.pad();
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (v < neighbors[e]) {
+                        out.putInt(neighbors[e]);
+                    }
+                }
+            }
+            out.pad();
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (v < neighbors[e]) {
+                        out.putDouble(weights[e]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // Writes a rooted forest, parent[v] is -1 for roots and distance[v] is the length of v's parent edge
+    public static void writeParents(int[] parent, double[] distance, File file) throws IOException {
+        int n = parent.length;
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            if (parent[v] != -1) {
+                m++;
+            }
+        }
+
+        ColumnWriter out = new ColumnWriter(file);
+        try {
+            out.header(PARENT_ARRAY, n, m);
+            for (int v = 0; v < n; v++) {
+                out.putInt(parent[v]);
+            }
+            out.pad();
+            for (int v = 0; v < n; v++) {
+                out.putDouble((parent[v] != -1) ? distance[v] : 0.0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void checkSize(File file, FileChannel channel, long expected) throws IOException {
+        if (channel.size() < expected) {
+            throw new IOException(file + ": truncated, expected " + expected + " bytes, found " + channel.size());
+        }
+    }
+
+    // Buffered little-endian writer that tracks the file position for padding
+    private static class ColumnWriter {
+
+        private final FileOutputStream stream;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        ColumnWriter(File file) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+        }
+
+        void header(int layout, long numNodes, long numEdges) throws IOException {
+            putInt(MAGIC);
+            putInt(VERSION);
+            putInt(layout);
+            putInt(0);
+            putLong(numNodes);
+            putLong(numEdges);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            position += 8;
+        }
+
+        // Zero bytes up to the next 8 byte boundary
+        void pad() throws IOException {
+            while (position != align(position)) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.*;
+
+/*
+    Structural fingerprint of a Tree<NodeData,EdgeData>, kept up to date as
+    the tree changes so that reading it is O(1). It covers the number of
+    nodes and every edge as its pair of node ids with its distance; node
+    positions, texts and colours are left out.
+
+    Every edge contributes a 128-bit hash of (smaller id, larger id,
+    distance) and the contributions are added up, so adding or removing an
+    edge is O(1) and a node whose id changes costs O(degree). Distances
+    must be changed through Tree.edgeChanged to be picked up.
+
+    Equal keys mean the same edges with the same distances. Edge order is
+    not part of the key, so a cached decomposition is a valid one for the
+    tree but not necessarily the one a fresh run would pick after edits
+    reordered edges.
+ */
+public class TreeFingerprint implements Tree.Listener<NodeData,EdgeData> {
+
+    // Value of the fingerprint at one moment, usable as a map key
+    public static final class Key {
+        private final int numNodes;
+        private final int numEdges;
+        private final long hash1;
+        private final long hash2;
+
+        Key(int numNodes, int numEdges, long hash1, long hash2) {
+            this.numNodes = numNodes;
+            this.numEdges = numEdges;
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return numNodes == key.numNodes && numEdges == key.numEdges
+                    && hash1 == key.hash1 && hash2 == key.hash2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash1 ^ (hash1 >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d/%016x%016x", numNodes, numEdges, hash1, hash2);
+        }
+    }
+
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final Tree<NodeData,EdgeData> tree;
+
+    // Distance each edge was hashed with, needed to take it out again after a change
+    private final IdentityHashMap<Tree<NodeData,EdgeData>.Edge, Double> hashedDistance =
+            new IdentityHashMap<Tree<NodeData,EdgeData>.Edge, Double>();
+
+    private long hash1;
+    private long hash2;
+
+    // Cached key, null after a change
+    private Key key;
+
+
+    public TreeFingerprint(Tree<NodeData,EdgeData> tree) {
+        this.tree = tree;
+        for (Tree<NodeData,EdgeData>.Edge edge : tree.getEdges()) {
+            add(edge);
+        }
+        tree.addListener(this);
+    }
+
+    public void detach() {
+        tree.removeListener(this);
+    }
+
+    public Key getKey() {
+        if (key == null) {
+            key = new Key(tree.numNodes(), tree.numEdges(), hash1, hash2);
+        }
+        return key;
+    }
+
+    // Fingerprint of a CSR tree, equal to the key of the Tree it was made from. O(n)
+    public static Key of(CompactTree tree) {
+        int[] offsets = tree.getOffsets();
+        int[] neighbors = tree.getNeighbors();
+        double[] weights = tree.getWeights();
+        long hash1 = 0, hash2 = 0;
+        for (int v = 0; v < tree.numNodes(); v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                if (v < neighbors[e]) {
+                    hash1 += edgeHash(v, neighbors[e], weights[e], SEED1);
+                    hash2 += edgeHash(v, neighbors[e], weights[e], SEED2);
+                }
+            }
+        }
+        return new Key(tree.numNodes(), tree.numEdges(), hash1, hash2);
+    }
+
+    private void add(Tree<NodeData,EdgeData>.Edge edge) {
+        double distance = edge.getData().getDistance();
+        hashedDistance.put(edge, distance);
+        update(edge.getNode().getId(), edge.getOtherNode(edge.getNode()).getId(), distance, 1);
+    }
+
+    private void remove(Tree<NodeData,EdgeData>.Edge edge) {
+        double distance = hashedDistance.remove(edge);
+        update(edge.getNode().getId(), edge.getOtherNode(edge.getNode()).getId(), distance, -1);
+    }
+
+    private void update(int u, int v, double distance, long sign) {
+        int low = Math.min(u, v), high = Math.max(u, v);
+        hash1 += sign * edgeHash(low, high, distance, SEED1);
+        hash2 += sign * edgeHash(low, high, distance, SEED2);
+        key = null;
+    }
+
+    private static long edgeHash(int low, int high, double distance, long seed) {
+        long h = mix(seed + (((long) low << 32) | (high & 0xFFFFFFFFL)));
+        return mix(h ^ Double.doubleToLongBits(distance));
+    }
+
+    // Finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public void nodeAdded(Tree<NodeData,EdgeData>.Node node) {
+        key = null;
+    }
+
+    public void edgeAdded(Tree<NodeData,EdgeData>.Edge edge) {
+        add(edge);
+    }
+
+    // The endpoints still have their ids, removeNode renumbers afterwards
+    public void edgeRemoved(Tree<NodeData,EdgeData>.Edge edge) {
+        remove(edge);
+    }
+
+    public void edgeChanged(Tree<NodeData,EdgeData>.Edge edge) {
+        remove(edge);
+        add(edge);
+    }
+
+    public void nodeRemoved(Tree<NodeData,EdgeData>.Node node) {
+        key = null;
+    }
+
+    // Rehashes the node's edges with the old id taken out and the new one put in
+    public void nodeMoved(Tree<NodeData,EdgeData>.Node node, int oldId) {
+        for (Tree<NodeData,EdgeData>.Edge edge : node.getEdges()) {
+            int other = edge.getOtherNode(node).getId();
+            double distance = hashedDistance.get(edge);
+            update(oldId, other, distance, -1);
+            update(node.getId(), other, distance, 1);
+        }
+        key = null;
+    }
+}
@@ -0,0 +1,323 @@
+import java.awt.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+    Radial layout for trees that come without positions, e.g. ones read
+    from a file. Each component is rooted at its top centroid, which sits
+    in the middle, and every other node goes on the ring of its depth.
+    A node gets a wedge of its parent's wedge in proportion to the number
+    of leaves below it, and is placed in the middle of its wedge.
+
+    Rings are at least LEVEL_SPACING apart and are pushed out until the
+    narrowest wedge on them is NODE_SPACING wide, so no two nodes overlap.
+    Components are placed side by side in the order of their first node.
+
+    Runs in O(n). The sizes are found with one sequential pass; placing the
+    nodes, which is the costly part, is split across a ForkJoinPool by
+    subtree, the same way ParallelCentroidDecomposer splits components.
+ */
+public class TreeLayout {
+
+    // Smallest distance between two rings, and between two nodes on a ring
+    public static final int LEVEL_SPACING = 3 * EdgeGeometry.NODE_RADIUS;
+    public static final int NODE_SPACING = 3 * EdgeGeometry.NODE_RADIUS;
+
+    // Subtrees of at most this many nodes are placed inside a single task
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+    // Room left of and above the layout
+    private static final int MARGIN = 2 * EdgeGeometry.NODE_RADIUS;
+
+    // Rings are kept within this radius so positions stay in int range
+    private static final double MAX_RADIUS = 1 << 28;
+
+    // Told how many nodes have been placed so far; called from the pool's threads
+    public interface Progress {
+        void placed(int count, int total);
+    }
+
+    public static final Progress NO_PROGRESS = new Progress() {
+        public void placed(int count, int total) {
+        }
+    };
+
+    private final ForkJoinPool pool;
+
+    private final int threshold;
+
+    private Progress progress = NO_PROGRESS;
+
+
+    public TreeLayout() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public TreeLayout(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    public Point[] layout(Tree<NodeData,EdgeData> tree) {
+        return layout(CompactTree.fromTree(tree));
+    }
+
+    // Position of every node, indexed by node id
+    public Point[] layout(CompactTree tree) {
+        return new Job(tree).run();
+    }
+
+    // State shared by all tasks of one layout call
+    private class Job {
+        final int[] offsets;
+        final int[] neighbors;
+        final int n;
+
+        final boolean[] removed;
+        final int[] dfsParent;
+        final int[] subtreeSize;
+        final int[] visitOrder;
+        final int[] stack;
+
+        // Position of every node of the component being placed in visitOrder
+        final int[] orderIndex;
+
+        final int[] depth;
+        final int[] leaves;
+
+        // Wedge of every node, as start angle and width
+        final double[] wedgeStart;
+        final double[] wedgeWidth;
+
+        final Point[] positions;
+        final AtomicInteger placed = new AtomicInteger();
+
+        // Ring radius per depth and centre of the component being placed
+        double[] ringRadius;
+        double centerX;
+        double centerY;
+
+        Job(CompactTree tree) {
+            offsets = tree.getOffsets();
+            neighbors = tree.getNeighbors();
+            n = tree.numNodes();
+            removed = new boolean[n];
+            dfsParent = new int[n];
+            subtreeSize = new int[n];
+            visitOrder = new int[n];
+            stack = new int[n];
+            orderIndex = new int[n];
+            depth = new int[n];
+            leaves = new int[n];
+            wedgeStart = new double[n];
+            wedgeWidth = new double[n];
+            positions = new Point[n];
+            Arrays.fill(depth, -1);
+        }
+
+        Point[] run() {
+            // The size passes are shared with the decomposers, which read columns
+            IntBuffer offsetColumn = IntBuffer.wrap(offsets);
+            IntBuffer neighborColumn = IntBuffer.wrap(neighbors);
+            double left = MARGIN;
+            for (int v = 0; v < n; v++) {
+                if (depth[v] >= 0) {
+                    continue;
+                }
+                // Size pass from any node to find the centroid, then again rooted at it
+                int size = CentroidDecomposer.calculateSubtreeSizes(offsetColumn, neighborColumn, removed,
+                        dfsParent, subtreeSize, visitOrder, stack, v);
+                int root = CentroidDecomposer.findCentroid(offsetColumn, neighborColumn, removed,
+                        dfsParent, subtreeSize, v, size);
+                CentroidDecomposer.calculateSubtreeSizes(offsetColumn, neighborColumn, removed,
+                        dfsParent, subtreeSize, visitOrder, stack, root);
+                int height = measure(size);
+
+                double radius = ringRadius[height];
+                centerX = left + radius;
+                centerY = MARGIN + radius;
+                left += 2 * radius + NODE_SPACING;
+
+                wedgeStart[root] = 0;
+                wedgeWidth[root] = 2 * Math.PI;
+                if (size <= threshold) {
+                    placeSubtree(root);
+                    reportPlaced(size);
+                } else {
+                    pool.invoke(new PlaceTask(root));
+                }
+            }
+            return positions;
+        }
+
+        /*
+            Fills in depth and leaf counts of the component just sized, whose
+            nodes are visitOrder[0 .. size), and the radius of each ring.
+            Returns the depth of the deepest node.
+         */
+        int measure(int size) {
+            int height = 0;
+            for (int i = 0; i < size; i++) {
+                int v = visitOrder[i];
+                orderIndex[v] = i;
+                depth[v] = (i == 0) ? 0 : depth[dfsParent[v]] + 1;
+                height = Math.max(height, depth[v]);
+                leaves[v] = 0;
+            }
+            int[] fewestLeaves = new int[height + 1];
+            Arrays.fill(fewestLeaves, Integer.MAX_VALUE);
+            for (int i = size - 1; i >= 0; i--) {
+                int v = visitOrder[i];
+                if (leaves[v] == 0) {
+                    leaves[v] = 1;
+                }
+                if (i > 0) {
+                    leaves[dfsParent[v]] += leaves[v];
+                }
+                fewestLeaves[depth[v]] = Math.min(fewestLeaves[depth[v]], leaves[v]);
+            }
+
+            // The narrowest wedge on ring d spans fewestLeaves[d] / leaves[root] of the circle
+            int totalLeaves = leaves[visitOrder[0]];
+            ringRadius = new double[height + 1];
+            for (int d = 1; d <= height; d++) {
+                double needed = (double) NODE_SPACING * totalLeaves / (2 * Math.PI * fewestLeaves[d]);
+                ringRadius[d] = Math.min(MAX_RADIUS, Math.max(ringRadius[d - 1] + LEVEL_SPACING, needed));
+            }
+            return height;
+        }
+
+        // Places v and splits its wedge among its children
+        void place(int v) {
+            double radius = ringRadius[depth[v]];
+            double angle = wedgeStart[v] + wedgeWidth[v] / 2;
+            positions[v] = new Point((int) Math.round(centerX + radius * Math.cos(angle)),
+                    (int) Math.round(centerY + radius * Math.sin(angle)));
+
+            double start = wedgeStart[v];
+            double perLeaf = wedgeWidth[v] / leaves[v];
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int child = neighbors[e];
+                if (child != dfsParent[v]) {
+                    wedgeStart[child] = start;
+                    wedgeWidth[child] = perLeaf * leaves[child];
+                    start += wedgeWidth[child];
+                }
+            }
+        }
+
+        /*
+            Places the subtree of v, whose wedge is already set. visitOrder is
+            a preorder, so the subtree is the run of subtreeSize[v] nodes from
+            v on, each after its parent; no stack is needed.
+         */
+        void placeSubtree(int v) {
+            int from = orderIndex[v];
+            for (int i = from; i < from + subtreeSize[v]; i++) {
+                place(visitOrder[i]);
+            }
+        }
+
+        void reportPlaced(int count) {
+            progress.placed(placed.addAndGet(count), n);
+        }
+
+        /*
+            Places the subtree of a node that is too large for one task. The
+            task carries on down the largest child itself and forks the rest,
+            so long paths don't nest tasks and the nesting stays logarithmic.
+         */
+        @SuppressWarnings("serial")
+        class PlaceTask extends RecursiveAction {
+            private final int node;
+
+            PlaceTask(int node) {
+                this.node = node;
+            }
+
+            protected void compute() {
+                ArrayList<RecursiveAction> forked = new ArrayList<RecursiveAction>();
+                int v = node;
+                int count = 0;
+                while (v >= 0) {
+                    place(v);
+                    count++;
+
+                    // Large children get a task each, runs of small ones are batched
+                    int heaviest = -1;
+                    int runStart = offsets[v];
+                    int runSize = 0;
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        int child = neighbors[e];
+                        if (child == dfsParent[v]) {
+                            continue;
+                        }
+                        if (subtreeSize[child] <= threshold) {
+                            runSize += subtreeSize[child];
+                            if (runSize >= threshold) {
+                                forked.add(fork(new ChildrenTask(v, runStart, e + 1)));
+                                runStart = e + 1;
+                                runSize = 0;
+                            }
+                        } else if (heaviest < 0 || subtreeSize[child] > subtreeSize[heaviest]) {
+                            if (heaviest >= 0) {
+                                forked.add(fork(new PlaceTask(heaviest)));
+                            }
+                            heaviest = child;
+                        } else {
+                            forked.add(fork(new PlaceTask(child)));
+                        }
+                    }
+                    if (runSize > 0) {
+                        forked.add(fork(new ChildrenTask(v, runStart, offsets[v + 1])));
+                    }
+                    v = heaviest;
+                }
+                // One progress update for the whole chain, as the atomic counter is shared by every task
+                reportPlaced(count);
+                for (int i = forked.size() - 1; i >= 0; i--) {
+                    forked.get(i).join();
+                }
+            }
+
+            private RecursiveAction fork(RecursiveAction task) {
+                task.fork();
+                return task;
+            }
+        }
+
+        // Places the small children of node reached through CSR slots [from, to)
+        @SuppressWarnings("serial")
+        class ChildrenTask extends RecursiveAction {
+            private final int node;
+            private final int from;
+            private final int to;
+
+            ChildrenTask(int node, int from, int to) {
+                this.node = node;
+                this.from = from;
+                this.to = to;
+            }
+
+            protected void compute() {
+                int count = 0;
+                for (int e = from; e < to; e++) {
+                    int child = neighbors[e];
+                    if (child != dfsParent[node] && subtreeSize[child] <= threshold) {
+                        placeSubtree(child);
+                        count += subtreeSize[child];
+                    }
+                }
+                if (count > 0) {
+                    reportPlaced(count);
+                }
+            }
+        }
+    }
+}
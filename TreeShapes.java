@@ -0,0 +1,85 @@
+import java.awt.*;
+import java.util.*;
+
+/*
+    Generates trees of a given shape and size, for benchmarks and batch runs.
+    Node 0 is the root and every other node i hangs off parent[i] < i.
+ */
+public class TreeShapes {
+
+    public enum Shape {
+        RANDOM, PATH, STAR, CATERPILLAR, BINARY
+    }
+
+    private TreeShapes() {
+    }
+
+    // Parent of every node, parent[0] = -1
+    public static int[] parents(Shape shape, int n, long seed) {
+        int[] parent = new int[n];
+        Random random = new Random(seed);
+        // Caterpillar: the first half is a path, the rest are legs spread along it
+        int spine = Math.max(1, n / 2);
+        if (n > 0) {
+            parent[0] = -1;
+        }
+        for (int i = 1; i < n; i++) {
+            switch (shape) {
+                case RANDOM:
+                    parent[i] = random.nextInt(i);
+                    break;
+                case PATH:
+                    parent[i] = i - 1;
+                    break;
+                case STAR:
+                    parent[i] = 0;
+                    break;
+                case CATERPILLAR:
+                    parent[i] = (i < spine) ? i - 1 : (i - spine) % spine;
+                    break;
+                case BINARY:
+                    parent[i] = (i - 1) / 2;
+                    break;
+            }
+        }
+        return parent;
+    }
+
+    // Edge lengths drawn from 1 .. 100
+    public static double[] weights(int n, long seed) {
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        double[] weight = new double[n];
+        for (int i = 1; i < n; i++) {
+            weight[i] = 1 + random.nextInt(100);
+        }
+        return weight;
+    }
+
+    public static CompactTree compact(Shape shape, int n, long seed) {
+        int[] parent = parents(shape, n, seed);
+        double[] weight = weights(n, seed);
+        int m = Math.max(0, n - 1);
+        int[] from = new int[m];
+        int[] to = new int[m];
+        double[] edgeWeight = new double[m];
+        for (int i = 1; i < n; i++) {
+            from[i - 1] = parent[i];
+            to[i - 1] = i;
+            edgeWeight[i - 1] = weight[i];
+        }
+        return CompactTree.fromEdges(n, from, to, edgeWeight, m);
+    }
+
+    public static Tree<NodeData,EdgeData> tree(Shape shape, int n, long seed, boolean indexed) {
+        int[] parent = parents(shape, n, seed);
+        double[] weight = weights(n, seed);
+        Tree<NodeData,EdgeData> tree = new Tree<NodeData,EdgeData>(indexed);
+        for (int i = 0; i < n; i++) {
+            tree.addNode(new NodeData(new Point(0, 0), Integer.toString(i)));
+            if (i > 0) {
+                tree.addEdge(new EdgeData(weight[i]), tree.getNode(parent[i]), tree.getNode(i));
+            }
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+    Frozen copy of a Tree<NodeData,EdgeData> for work done off the thread
+    that edits it, e.g. a decomposition run in a SwingWorker while the user
+    keeps adding and moving nodes.
+
+    Taking a snapshot costs O(n) on the editing thread. After that the
+    snapshot is read-only and shares nothing mutable with the tree: it holds
+    the structure and edge distances in CSR form (see CompactTree) but no
+    NodeData, so readers need no locks. Node ids are the tree's ids at the
+    time of the snapshot.
+
+    Whether a result is stale is answered by comparing versions: the tree
+    bumps its version on every structural change and on distances reported
+    through Tree.edgeChanged. Moving nodes or changing text and colours does
+    not count as a change.
+ */
+public final class TreeSnapshot {
+
+    private final Tree<NodeData,EdgeData> source;
+
+    private final long version;
+
+    private final CompactTree tree;
+
+    // Fingerprint of the copied tree, worked out on first use when no live one was given
+    private TreeFingerprint.Key key;
+
+
+    private TreeSnapshot(Tree<NodeData,EdgeData> source, long version, CompactTree tree, TreeFingerprint.Key key) {
+        this.source = source;
+        this.version = version;
+        this.tree = tree;
+        this.key = key;
+    }
+
+    // Must be called on the thread that edits the tree
+    public static TreeSnapshot of(Tree<NodeData,EdgeData> source) {
+        return of(source, null);
+    }
+
+    // Same, taking the key from a fingerprint kept on the tree instead of hashing the copy
+    public static TreeSnapshot of(Tree<NodeData,EdgeData> source, TreeFingerprint fingerprint) {
+        CompactTree copy = CompactTree.fromTree(source);
+        // Node data stays with the live tree, it is mutable
+        return new TreeSnapshot(source, source.getVersion(),
+                new CompactTree(copy.getOffsets(), copy.getNeighbors(), copy.getWeights(), null),
+                (fingerprint != null) ? fingerprint.getKey() : null);
+    }
+
+    public CompactTree getTree() {
+        return tree;
+    }
+
+    public int numNodes() {
+        return tree.numNodes();
+    }
+
+    // Key for DecompositionCache. Keys are immutable, so computing one twice in a race is harmless
+    public TreeFingerprint.Key getKey() {
+        if (key == null) {
+            key = TreeFingerprint.of(tree);
+        }
+        return key;
+    }
+
+    // Version of the source tree the snapshot was taken at
+    public long getVersion() {
+        return version;
+    }
+
+    // True once the source tree has changed structurally; safe to call from any thread
+    public boolean isStale() {
+        return source.getVersion() != version;
+    }
+
+    /*
+        Node of the live tree with the given snapshot id, for applying a
+        result. Only valid on the editing thread while the snapshot is current.
+     */
+    public Tree<NodeData,EdgeData>.Node liveNode(int id) {
+        if (isStale()) {
+            throw new IllegalStateException("Tree changed since the snapshot was taken");
+        }
+        return source.getNode(id);
+    }
+}
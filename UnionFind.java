@@ -0,0 +1,85 @@
+import java.util.*;
+
+/*
+    Disjoint sets over the ints 0 .. size()-1, with union by size and
+    path compression. Used to reject cycle-creating edges as they are added.
+ */
+public class UnionFind {
+
+    private int[] parent;
+
+    // Size of each set, only valid at the set's root
+    private int[] setSize;
+
+    private int size;
+
+
+    public UnionFind(int size) {
+        parent = new int[Math.max(size, 16)];
+        setSize = new int[parent.length];
+        clear(size);
+    }
+
+    // Resets to size singleton sets
+    public void clear(int size) {
+        if (parent.length < size) {
+            parent = new int[size];
+            setSize = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+            setSize[i] = 1;
+        }
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Adds a new singleton set and returns its element
+    public int add() {
+        if (size == parent.length) {
+            parent = Arrays.copyOf(parent, 2 * size);
+            setSize = Arrays.copyOf(setSize, 2 * size);
+        }
+        parent[size] = size;
+        setSize[size] = 1;
+        return size++;
+    }
+
+    public int find(int x) {
+        int root = x;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        // Point everything on the path straight at the root
+        while (parent[x] != root) {
+            int next = parent[x];
+            parent[x] = root;
+            x = next;
+        }
+        return root;
+    }
+
+    // Merges the sets of a and b. Returns false if they were already in the same set.
+    public boolean union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return false;
+        }
+        if (setSize[rootA] < setSize[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent[rootB] = rootA;
+        setSize[rootA] += setSize[rootB];
+        return true;
+    }
+
+    public boolean connected(int a, int b) {
+        return find(a) == find(b);
+    }
+}
@@ -0,0 +1,88 @@
+package centroid.bench;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/*
+    Reports the deepest Java stack, in frames, of any thread running the
+    benchmarked code during an iteration: -prof centroid.bench.StackDepthProfiler.
+
+    Stacks are sampled about once a millisecond. A thread counts while one
+    of its frames is in the default package, where all engines live, so pool
+    workers are included and JVM and JMH threads are not. Stacks deeper than
+    -XX:MaxJavaStackTraceDepth read as that limit.
+ */
+public class StackDepthProfiler implements InternalProfiler {
+
+    private Sampler sampler;
+
+    public String getDescription() {
+        return "Deepest Java stack of the threads running the benchmarked code";
+    }
+
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        sampler = new Sampler();
+        sampler.start();
+    }
+
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        sampler.finish();
+        return Collections.singletonList(
+                new ScalarResult("stack.depth", sampler.deepest, "frames", AggregationPolicy.MAX));
+    }
+
+    private static class Sampler extends Thread {
+
+        private volatile boolean running = true;
+
+        private volatile int deepest;
+
+        Sampler() {
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (running) {
+                for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+                    StackTraceElement[] trace = entry.getValue();
+                    if (entry.getKey() != this && trace.length > deepest && inEngineCode(trace)) {
+                        deepest = trace.length;
+                    }
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private static boolean inEngineCode(StackTraceElement[] trace) {
+            for (StackTraceElement frame : trace) {
+                if (frame.getClassName().indexOf('.') < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
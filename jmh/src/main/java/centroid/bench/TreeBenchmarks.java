@@ -0,0 +1,99 @@
+package centroid.bench;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+    Every case of Benchmarks.cases as a JMH benchmark, on each generated
+    shape from 10^3 to 10^7 nodes, in forked JVMs. All engines are values
+    of one parameter, so they land in one report and compare row by row.
+
+        java -jar jmh/target/benchmarks.jar -prof gc -prof centroid.bench.StackDepthProfiler
+
+    Throughput is in operations per second; times nodes it is nodes per
+    second. -prof gc adds the allocation rate, StackDepthProfiler the
+    deepest stack of the benchmarked code. The full matrix runs for hours,
+    so narrow it with -p, e.g. -p shape=PATH -p nodes=1000000
+    -p "engine=CentroidDecomposer (CSR)".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx8g")
+public class TreeBenchmarks {
+
+    @Param({"RANDOM", "PATH", "STAR", "CATERPILLAR", "BINARY"})
+    public String shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int nodes;
+
+    @Param({
+        "Tree.addEdge",
+        "Tree.addEdge (indexed)",
+        "Tree.addEdge (cycle check)",
+        "Tree.isAcyclic",
+        "CompactTree.fromTree",
+        "CompactTree.isAcyclic",
+        "CentroidDecomposer (Tree)",
+        "CentroidDecomposer (CSR)",
+        "ParallelCentroidDecomposer (CSR)",
+        "CentroidDecomposer.decomposeForest",
+        "ParallelCentroidDecomposer (forest)",
+        "DecompositionTimeline (canvas)",
+        "DecompositionVerifier",
+        "TreeFingerprint.of",
+        "TreeLayout",
+        "CentroidDistanceTable (build)",
+        "PairDistanceCounter.countWithin",
+        "LcaIndex (build)",
+        "LcaIndex.distances",
+        "CentroidDistanceTable.distances",
+        "NearestMarkedService (build)",
+        "NearestMarkedService (updates)",
+        "HeavyLightDecomposition (build)",
+        "HeavyLightDecomposition.pathSums",
+        "HeavyLightDecomposition (updates)",
+        "DynamicCentroidTree (inserts)"
+    })
+    public String engine;
+
+    private Callable<?> body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // The engines are in the default package, which code in a package can't name, so look the case up once
+        Class<?> shapeType = Class.forName("TreeShapes$Shape");
+        Object shapeValue = shapeType.getMethod("valueOf", String.class).invoke(null, shape);
+        Method cases = Class.forName("Benchmarks").getMethod("cases", shapeType, int.class);
+        body = (Callable<?>) ((Map<?, ?>) cases.invoke(null, shapeValue, nodes)).get(engine);
+        if (body == null) {
+            throw new IllegalArgumentException("No benchmark case " + engine);
+        }
+        // The first call builds the inputs the case works on
+        body.call();
+    }
+
+    @Benchmark
+    public void run(Blackhole blackhole) throws Exception {
+        blackhole.consume(body.call());
+    }
+}